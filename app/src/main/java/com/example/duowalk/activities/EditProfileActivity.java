@@ -4,25 +4,18 @@ import android.os.Bundle;
 import android.text.TextUtils;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.duowalk.R;
 import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.IdentityKeys;
+import com.example.duowalk.utils.TopLeaderboards;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.MutableData;
-import com.google.firebase.database.Transaction;
-
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
 
 public class EditProfileActivity extends AppCompatActivity {
 
@@ -58,9 +51,9 @@ public class EditProfileActivity extends AppCompatActivity {
             if (username != null) etUsername.setText(username);
         });
 
-        // Phone (private)
-        FirebaseUtils.usersRef.child(uid).get().addOnSuccessListener(snap -> {
-            String phone = snap.child("phoneNum").getValue(String.class);
+        // Phone (private, leaf only)
+        FirebaseUtils.usersRef.child(uid).child("phoneNum").get().addOnSuccessListener(snap -> {
+            String phone = snap.getValue(String.class);
             if (phone != null) etPhone.setText(phone);
         });
     }
@@ -86,7 +79,7 @@ public class EditProfileActivity extends AppCompatActivity {
             return;
         }
 
-        String newUsernameKey = normalizeUsernameKey(newUsername);
+        String newUsernameKey = IdentityKeys.usernameKey(newUsername);
         if (newUsernameKey.length() < 3) {
             tilUsername.setError("Username must be at least 3 characters");
             return;
@@ -98,258 +91,99 @@ public class EditProfileActivity extends AppCompatActivity {
             return;
         }
 
-        if (!isPossiblePhone(newPhoneRaw)) {
+        if (!IdentityKeys.isPossiblePhone(newPhoneRaw)) {
             tilPhone.setError("Phone number doesn’t look real");
             return;
         }
 
-        String newPhoneNormalized = normalizePhone(newPhoneRaw);
-        String newPhoneHash = sha256Hex(newPhoneNormalized);
+        String newPhoneNormalized = IdentityKeys.canonicalPhone(newPhoneRaw);
+        String newPhoneHash = IdentityKeys.sha256Hex(newPhoneNormalized);
 
         btnSave.setEnabled(false);
 
-        // Read current stored values so we can detect what changed
-        FirebaseUtils.usersRef.child(uid).get().addOnSuccessListener(userSnap -> {
-
-            String oldUsername = userSnap.child("username").getValue(String.class);
-            String oldPhone = userSnap.child("phoneNum").getValue(String.class);
-
-            String oldUsernameKey = (oldUsername != null) ? normalizeUsernameKey(oldUsername) : null;
-            String oldPhoneNormalized = (oldPhone != null) ? normalizePhone(oldPhone) : null;
-            String oldPhoneHash = (oldPhoneNormalized != null) ? sha256Hex(oldPhoneNormalized) : null;
-
-            boolean usernameChanged = (oldUsernameKey == null) || !oldUsernameKey.equals(newUsernameKey);
-            boolean phoneChanged = (oldPhoneHash == null) || !oldPhoneHash.equals(newPhoneHash);
+        // Read the current index keys (leaves only) so we know what to release
+        DatabaseReference userRef = FirebaseUtils.usersRef.child(uid);
+        Tasks.whenAllSuccess(
+                        userRef.child("usernameKey").get(),
+                        userRef.child("phoneHash").get(),
+                        userRef.child("username").get(),
+                        userRef.child("phoneNum").get())
+                .addOnSuccessListener(results -> {
+                    String oldUsernameKey = ((DataSnapshot) results.get(0)).getValue(String.class);
+                    String oldPhoneHash = ((DataSnapshot) results.get(1)).getValue(String.class);
+                    String oldUsername = ((DataSnapshot) results.get(2)).getValue(String.class);
+                    String oldPhone = ((DataSnapshot) results.get(3)).getValue(String.class);
+
+                    // Older accounts did not store the keys -> derive them from the values
+                    if (oldUsernameKey == null && oldUsername != null) {
+                        oldUsernameKey = IdentityKeys.usernameKey(oldUsername);
+                    }
+                    if (oldPhoneHash == null && oldPhone != null) {
+                        oldPhoneHash = IdentityKeys.legacyPhoneHash(oldPhone);
+                    }
 
-            // Nothing changed -> done
-            if (!usernameChanged && !phoneChanged) {
-                btnSave.setEnabled(true);
-                Toast.makeText(this, "No changes", Toast.LENGTH_SHORT).show();
-                finish();
-                return;
-            }
+                    // A new display spelling of the same key still has to be written
+                    boolean usernameChanged = !newUsernameKey.equals(oldUsernameKey)
+                            || !newUsername.equals(oldUsername);
+                    boolean phoneChanged = !newPhoneHash.equals(oldPhoneHash);
 
-            // Step 1: claim username ONLY if changed
-            if (usernameChanged) {
-                claimUsername(uid, newUsernameKey, okUser -> {
-                    if (!okUser) {
+                    // Nothing changed -> done
+                    if (!usernameChanged && !phoneChanged) {
                         btnSave.setEnabled(true);
-                        tilUsername.setError("Username is already taken");
+                        Toast.makeText(this, "No changes", Toast.LENGTH_SHORT).show();
+                        finish();
                         return;
                     }
-                    // Step 2: claim phone ONLY if changed
-                    claimPhoneIfNeededThenUpdate(uid, phoneChanged, newPhoneHash,
-                            newUsernameKey, oldUsernameKey, oldPhoneHash,
-                            newUsername, newPhoneNormalized);
-                });
-            } else {
-                // Username unchanged -> skip claim
-                claimPhoneIfNeededThenUpdate(uid, phoneChanged, newPhoneHash,
-                        null, oldUsernameKey, oldPhoneHash,
-                        newUsername, newPhoneNormalized);
-            }
-
-        }).addOnFailureListener(e -> {
-            btnSave.setEnabled(true);
-            Toast.makeText(this, "Failed reading current user: " + e.getMessage(), Toast.LENGTH_LONG).show();
-        });
-    }
 
-    // If phone didn't change, skip phone claim
-    private void claimPhoneIfNeededThenUpdate(String uid,
-                                              boolean phoneChanged,
-                                              String newPhoneHash,
-                                              String claimedUsernameKeyOrNull,
-                                              String oldUsernameKey,
-                                              String oldPhoneHash,
-                                              String newUsername,
-                                              String newPhoneNormalized) {
-
-        if (phoneChanged) {
-            claimPhone(uid, newPhoneHash, okPhone -> {
-                if (!okPhone) {
-                    // rollback username only if we claimed it in this run
-                    if (claimedUsernameKeyOrNull != null) {
-                        releaseUsernameIfOwned(uid, claimedUsernameKeyOrNull);
-                    }
+                    saveProfile(uid, newUsername, newUsernameKey, newPhoneNormalized, newPhoneHash,
+                            oldUsernameKey, oldPhoneHash);
+                })
+                .addOnFailureListener(e -> {
                     btnSave.setEnabled(true);
-                    tilPhone.setError("Phone number is already in use");
-                    return;
-                }
-
-                updateProfileData(uid, newUsername, newPhoneNormalized,
-                        (claimedUsernameKeyOrNull != null) ? claimedUsernameKeyOrNull : oldUsernameKey,
-                        newPhoneHash,
-                        oldUsernameKey, oldPhoneHash);
-            });
-        } else {
-            // phone unchanged -> just update data
-            updateProfileData(uid, newUsername, newPhoneNormalized,
-                    (claimedUsernameKeyOrNull != null) ? claimedUsernameKeyOrNull : oldUsernameKey,
-                    oldPhoneHash,
-                    oldUsernameKey, oldPhoneHash);
-        }
+                    Toast.makeText(this, "Failed reading current user: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                });
     }
 
-    // Update /users and /public_profiles, then release old claims if changed
-    private void updateProfileData(String uid,
-                                   String newUsername,
-                                   String newPhoneNormalized,
-                                   String finalUsernameKey,
-                                   String finalPhoneHash,
-                                   String oldUsernameKey,
-                                   String oldPhoneHash) {
-
-        Map<String, Object> privateUpdates = new HashMap<>();
-        privateUpdates.put("username", newUsername);
-        privateUpdates.put("phoneNum", newPhoneNormalized);
-
-        // Optional but helpful (doesn't require FirebaseUtils changes)
-        privateUpdates.put("usernameKey", finalUsernameKey);
-        privateUpdates.put("phoneHash", finalPhoneHash);
-
-        FirebaseUtils.usersRef.child(uid).updateChildren(privateUpdates, (err, ref) -> {
-            if (err != null) {
-                // rollback NEW claims if they were new
-                if (oldUsernameKey == null || !oldUsernameKey.equals(finalUsernameKey)) {
-                    releaseUsernameIfOwned(uid, finalUsernameKey);
-                }
-                if (oldPhoneHash == null || !oldPhoneHash.equals(finalPhoneHash)) {
-                    releasePhoneIfOwned(uid, finalPhoneHash);
-                }
-
-                btnSave.setEnabled(true);
-                Toast.makeText(this, "Failed updating user: " + err.getMessage(), Toast.LENGTH_LONG).show();
-                return;
-            }
-
-            FirebaseUtils.publicProfilesRef.child(uid).child("username").setValue(newUsername, (err2, ref2) -> {
-                if (err2 != null) {
-                    if (oldUsernameKey == null || !oldUsernameKey.equals(finalUsernameKey)) {
-                        releaseUsernameIfOwned(uid, finalUsernameKey);
-                    }
-                    if (oldPhoneHash == null || !oldPhoneHash.equals(finalPhoneHash)) {
-                        releasePhoneIfOwned(uid, finalPhoneHash);
-                    }
-
+    /**
+     * Claims the new keys, updates /users, /public_profiles and /leaderboard_entries
+     * and releases the old keys, all in ONE conditional write (FirebaseUtils.claimProfile).
+     */
+    private void saveProfile(String uid,
+                             String newUsername,
+                             String newUsernameKey,
+                             String newPhoneNormalized,
+                             String newPhoneHash,
+                             String oldUsernameKey,
+                             String oldPhoneHash) {
+
+        FirebaseUtils.claimProfile(uid, newUsername, newUsernameKey, newPhoneNormalized, newPhoneHash,
+                oldUsernameKey, oldPhoneHash, null, (result, errorMessage) -> {
                     btnSave.setEnabled(true);
-                    Toast.makeText(this, "Failed updating public profile: " + err2.getMessage(), Toast.LENGTH_LONG).show();
-                    return;
-                }
-
-                // Release OLD claims if they changed
-                if (oldUsernameKey != null && !oldUsernameKey.equals(finalUsernameKey)) {
-                    releaseUsernameIfOwned(uid, oldUsernameKey);
-                }
-                if (oldPhoneHash != null && !oldPhoneHash.equals(finalPhoneHash)) {
-                    releasePhoneIfOwned(uid, oldPhoneHash);
-                }
-
-                btnSave.setEnabled(true);
-                Toast.makeText(this, "Profile updated", Toast.LENGTH_SHORT).show();
-                setResult(RESULT_OK);
-                finish();
-            });
-        });
-    }
-
-    // ---------------- CLAIM / RELEASE (INDEXES) ----------------
-
-    private void claimUsername(String uid, String usernameKey, Callback cb) {
-        DatabaseReference ref = FirebaseUtils.usernamesRef.child(usernameKey);
-        ref.runTransaction(new Transaction.Handler() {
-            @NonNull
-            @Override
-            public Transaction.Result doTransaction(@NonNull MutableData currentData) {
-                Object v = currentData.getValue();
-                if (v != null && !uid.equals(String.valueOf(v))) {
-                    return Transaction.abort();
-                }
-                currentData.setValue(uid);
-                return Transaction.success(currentData);
-            }
-
-            @Override
-            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
-                cb.done(error == null && committed);
-            }
-        });
-    }
 
-    private void claimPhone(String uid, String phoneHash, Callback cb) {
-        DatabaseReference ref = FirebaseUtils.phoneIndexRef.child(phoneHash);
-        ref.runTransaction(new Transaction.Handler() {
-            @NonNull
-            @Override
-            public Transaction.Result doTransaction(@NonNull MutableData currentData) {
-                Object v = currentData.getValue();
-                if (v != null && !uid.equals(String.valueOf(v))) {
-                    return Transaction.abort();
-                }
-                currentData.setValue(uid);
-                return Transaction.success(currentData);
-            }
-
-            @Override
-            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
-                cb.done(error == null && committed);
-            }
-        });
-    }
-
-    private void releaseUsernameIfOwned(String uid, String usernameKey) {
-        if (usernameKey == null || usernameKey.isEmpty()) return;
-        FirebaseUtils.usernamesRef.child(usernameKey).get().addOnSuccessListener(snap -> {
-            Object v = snap.getValue();
-            if (v != null && uid.equals(String.valueOf(v))) {
-                FirebaseUtils.usernamesRef.child(usernameKey).removeValue();
-            }
-        });
-    }
-
-    private void releasePhoneIfOwned(String uid, String phoneHash) {
-        if (phoneHash == null || phoneHash.isEmpty()) return;
-        FirebaseUtils.phoneIndexRef.child(phoneHash).get().addOnSuccessListener(snap -> {
-            Object v = snap.getValue();
-            if (v != null && uid.equals(String.valueOf(v))) {
-                FirebaseUtils.phoneIndexRef.child(phoneHash).removeValue();
-            }
-        });
+                    switch (result) {
+                        case CLAIMED:
+                            // Top-N boards carry the name; the next step sync rewrites our entries
+                            TopLeaderboards.get(this).onUsernameChanged(newUsername);
+                            Toast.makeText(this, "Profile updated", Toast.LENGTH_SHORT).show();
+                            setResult(RESULT_OK);
+                            finish();
+                            break;
+                        case USERNAME_TAKEN:
+                            tilUsername.setError("Username is already taken");
+                            break;
+                        case PHONE_TAKEN:
+                            tilPhone.setError("Phone number is already in use");
+                            break;
+                        default:
+                            Toast.makeText(this, "Failed updating profile: " + errorMessage, Toast.LENGTH_LONG).show();
+                            break;
+                    }
+                });
     }
 
     // ---------------- HELPERS ----------------
 
-    private boolean isPossiblePhone(String raw) {
-        String phone = raw.replaceAll("[\\s-]", "");
-        if (phone.length() < 7 || phone.length() > 15) return false;
-        return android.util.Patterns.PHONE.matcher(phone).matches();
-    }
-
-    private String normalizeUsernameKey(String username) {
-        return username.trim().toLowerCase(Locale.ROOT);
-    }
-
-    private String normalizePhone(String raw) {
-        return raw.trim().replaceAll("[\\s-()]", "");
-    }
-
-    private String sha256Hex(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            return String.valueOf(input.hashCode());
-        }
-    }
-
     private String text(TextInputEditText et) {
         return et != null && et.getText() != null ? et.getText().toString().trim() : "";
     }
-
-    interface Callback {
-        void done(boolean ok);
-    }
 }
@@ -1,18 +1,247 @@
 package com.example.duowalk.activities;
 
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
+
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.duowalk.R;
+import com.example.duowalk.utils.ContactFriendFinder;
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.IdentityKeys;
+import com.example.duowalk.utils.PermissionsUtils;
+import com.example.duowalk.utils.UsernameSearch;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class FriendsActivity extends AppCompatActivity {
+
+    private TextView tvContactsStatus;
+    private ArrayAdapter<String> contactsAdapter;
+
+    private EditText etUsername;
+    private ArrayAdapter<UsernameSearch.Match> searchAdapter;
+    private final UsernameSearch usernameSearch = new UsernameSearch();
+
+    // Parallel to the adapter rows
+    private final List<String> contactUids = new ArrayList<>();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-      setContentView(R.layout.activity_friends);
+        setContentView(R.layout.activity_friends);
+
+        // ---------- Username search ----------
+        etUsername = findViewById(R.id.editTextText);
+
+        ListView lvResults = findViewById(R.id.lv_username_results);
+        searchAdapter = new ArrayAdapter<UsernameSearch.Match>(this,
+                android.R.layout.simple_list_item_1, new ArrayList<>()) {
+            // Names are read only for rows that get bound (visible), see UsernameSearch
+            @NonNull
+            @Override
+            public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+                TextView row = (TextView) super.getView(position, convertView, parent);
+                row.setText(usernameSearch.displayName(getItem(position), () -> {
+                    if (!isFinishing() && !isDestroyed()) notifyDataSetChanged();
+                }));
+                return row;
+            }
+        };
+        lvResults.setAdapter(searchAdapter);
+        lvResults.setOnItemClickListener((parent, view, position, id) -> {
+            UsernameSearch.Match m = searchAdapter.getItem(position);
+            addFriend(m.uid, usernameSearch.displayName(m, null));
+        });
+
+        etUsername.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                usernameSearch.search(s.toString(), new UsernameSearch.Callback() {
+                    @Override
+                    public void onResults(String query, List<UsernameSearch.Match> matches) {
+                        if (isFinishing() || isDestroyed()) return;
+                        etUsername.setError(null);
+                        showSearchResults(matches);
+                    }
+
+                    @Override
+                    public void onError(String query, String message) {
+                        if (isFinishing() || isDestroyed()) return;
+                        showSearchResults(new ArrayList<>());
+                        etUsername.setError("Search failed: " + message);
+                    }
+                });
+            }
+        });
+
+        // Add = exact username, one /usernames/{key} leaf read
+        findViewById(R.id.btn_add_friend).setOnClickListener(v -> addTypedUsername());
+
+        // ---------- Contacts discovery ----------
+        tvContactsStatus = findViewById(R.id.tv_contacts_status);
+
+        ListView lvMatches = findViewById(R.id.lv_contact_matches);
+        contactsAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<>());
+        lvMatches.setAdapter(contactsAdapter);
+        lvMatches.setOnItemClickListener((parent, view, position, id) ->
+                addFriend(contactUids.get(position), contactsAdapter.getItem(position)));
+
+        findViewById(R.id.btn_find_contacts).setOnClickListener(v -> {
+            if (PermissionsUtils.requestMissingPermissions(this, PermissionsUtils.REQ_CONTACTS,
+                    PermissionsUtils.permissionsForFriends())) {
+                findContactFriends();
+            }
+        });
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != PermissionsUtils.REQ_CONTACTS) return;
+
+        if (PermissionsUtils.allGranted(grantResults)) {
+            findContactFriends();
+        } else {
+            tvContactsStatus.setText("Contacts permission is needed to find friends");
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        usernameSearch.cancel();
+        super.onDestroy();
+    }
+
+    // ---------------- USERNAME SEARCH ----------------
+
+    private void showSearchResults(List<UsernameSearch.Match> matches) {
+        String uid = FirebaseUtils.getCurrentUid();
+
+        searchAdapter.clear();
+        for (UsernameSearch.Match m : matches) {
+            if (m.uid.equals(uid)) continue; // that's me
+            searchAdapter.add(m);
+        }
+    }
+
+    private void addTypedUsername() {
+        String typed = etUsername.getText().toString().trim();
+        String key = IdentityKeys.usernameKey(typed);
+        if (key.isEmpty()) return;
+
+        FirebaseUtils.usernamesRef.child(key).get().addOnCompleteListener(task -> {
+            if (isFinishing() || isDestroyed()) return;
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Exception e = task.getException();
+                Toast.makeText(this, "Lookup failed: " + (e != null ? e.getMessage() : ""),
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            Object owner = task.getResult().getValue();
+            if (owner == null) {
+                Toast.makeText(this, "No user named \"" + typed + "\"", Toast.LENGTH_SHORT).show();
+            } else if (String.valueOf(owner).equals(FirebaseUtils.getCurrentUid())) {
+                Toast.makeText(this, "That's you", Toast.LENGTH_SHORT).show();
+            } else {
+                addFriend(String.valueOf(owner), typed);
+            }
+        });
+    }
+
+    // ---------------- CONTACTS ----------------
+
+    private void findContactFriends() {
+        String uid = FirebaseUtils.getCurrentUid();
+        if (uid == null) return;
+
+        tvContactsStatus.setText("Searching your contacts...");
+
+        ContactFriendFinder.find(this, uid, new ContactFriendFinder.Callback() {
+            @Override
+            public void onResult(List<String> friendUids) {
+                if (isFinishing() || isDestroyed()) return;
+                if (friendUids.isEmpty()) {
+                    tvContactsStatus.setText("None of your contacts use DuoWalk yet");
+                    showContactMatches(new ArrayList<>(), new ArrayList<>());
+                    return;
+                }
+                loadUsernames(friendUids);
+            }
+
+            @Override
+            public void onError(String message) {
+                if (isFinishing() || isDestroyed()) return;
+                tvContactsStatus.setText("Contact search failed: " + message);
+            }
+        });
+    }
+
+    /** One leaf read per match (public_profiles/{uid}/username), all in parallel. */
+    private void loadUsernames(List<String> uids) {
+        List<Task<DataSnapshot>> reads = new ArrayList<>(uids.size());
+        for (String u : uids) {
+            reads.add(FirebaseUtils.publicProfilesRef.child(u).child("username").get());
+        }
+
+        Tasks.whenAllComplete(reads).addOnCompleteListener(done -> {
+            if (isFinishing() || isDestroyed()) return;
+
+            List<String> names = new ArrayList<>();
+            List<String> found = new ArrayList<>();
+            for (int i = 0; i < uids.size(); i++) {
+                Task<DataSnapshot> t = reads.get(i);
+                String name = (t.isSuccessful() && t.getResult() != null)
+                        ? t.getResult().getValue(String.class)
+                        : null;
+                if (name == null) continue; // profile not set up (or deleted)
+                names.add(name);
+                found.add(uids.get(i));
+            }
+
+            tvContactsStatus.setText(found.size() + " contacts on DuoWalk - tap to add");
+            showContactMatches(found, names);
+        });
+    }
+
+    private void showContactMatches(List<String> uids, List<String> names) {
+        contactUids.clear();
+        contactUids.addAll(uids);
+        contactsAdapter.clear();
+        contactsAdapter.addAll(names);
+    }
+
+    private void addFriend(String friendUid, String name) {
+        String uid = FirebaseUtils.getCurrentUid();
+        if (uid == null) return;
 
-        findViewById(R.id.btn_add_friend).setOnClickListener(v ->
-                Toast.makeText(this, "Friend request sent!", Toast.LENGTH_SHORT).show());
+        FirebaseUtils.addFriend(uid, friendUid, (error, ref) -> {
+            if (error != null) {
+                Toast.makeText(this, "Failed adding friend: " + error.getMessage(), Toast.LENGTH_LONG).show();
+                return;
+            }
+            Toast.makeText(this, name + " added to your friends", Toast.LENGTH_SHORT).show();
+        });
     }
 }
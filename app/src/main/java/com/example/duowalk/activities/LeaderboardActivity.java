@@ -1,18 +1,156 @@
 package com.example.duowalk.activities;
 
 import android.os.Bundle;
+import android.widget.TextView;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.duowalk.R;
+import com.example.duowalk.adapters.LeaderboardAdapter;
+import com.example.duowalk.utils.DayClock;
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.FriendsRanking;
+import com.example.duowalk.utils.LiveTopBoard;
+import com.example.duowalk.utils.TopLeaderboards;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.List;
 
 public class LeaderboardActivity extends AppCompatActivity {
 
+    // Load the next page when this many rows are left below the last visible one
+    private static final int PREFETCH_ROWS = 5;
+
+    private static final String BOARD_FRIENDS = "friends";
+
+    private TextView tvStatus;
+    private LeaderboardAdapter adapter;
+    private LinearLayoutManager layoutManager;
+
+    private String board = TopLeaderboards.BOARD_DAILY;
+    private LiveTopBoard live;
+    private FriendsRanking friends;
+    private boolean hasMore = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_leaderboard);
+
+        tvStatus = findViewById(R.id.tv_leaderboard_status);
+
+        RecyclerView rv = findViewById(R.id.rv_leaderboard);
+        layoutManager = new LinearLayoutManager(this);
+        adapter = new LeaderboardAdapter();
+        rv.setLayoutManager(layoutManager);
+        rv.setAdapter(adapter);
+        rv.setHasFixedSize(true);
+        rv.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (friends != null) {
+                    friends.setVisibleRange(layoutManager.findFirstVisibleItemPosition(),
+                            layoutManager.findLastVisibleItemPosition());
+                } else if (dy > 0) {
+                    maybeLoadMore();
+                }
+            }
+        });
+
+        findViewById(R.id.btn_board_daily).setOnClickListener(v -> showBoard(TopLeaderboards.BOARD_DAILY));
+        findViewById(R.id.btn_board_weekly).setOnClickListener(v -> showBoard(TopLeaderboards.BOARD_WEEKLY));
+        findViewById(R.id.btn_board_all_time).setOnClickListener(v -> showBoard(TopLeaderboards.BOARD_ALL_TIME));
+        findViewById(R.id.btn_board_friends).setOnClickListener(v -> showBoard(BOARD_FRIENDS));
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        showBoard(board);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // No live listeners while the screen is not visible
+        stopLive();
+    }
+
+    /** Live first page of the materialized top-N board; more pages load on scroll. */
+    private void showBoard(String board) {
+        this.board = board;
+        stopLive();
+        adapter.submitList(null);
+        hasMore = false;
+        tvStatus.setText("Loading...");
+
+        if (BOARD_FRIENDS.equals(board)) {
+            showFriends();
+            return;
+        }
+
+        String period = TopLeaderboards.periodOf(board, DayClock.get().today());
+        live = new LiveTopBoard(board, period, new LiveTopBoard.Listener() {
+            @Override
+            public void onRanked(List<LiveTopBoard.Row> rows, boolean more) {
+                hasMore = more;
+                adapter.submitList(rows);
+                tvStatus.setText(rows.isEmpty() ? "No steps yet" : "");
+            }
+
+            @Override
+            public void onError(DatabaseError error) {
+                tvStatus.setText("Failed loading leaderboard: " + error.getMessage());
+            }
+        });
+        live.start();
+    }
+
+    /** Live ranking of the user's friends (one shared listener per friend, windowed). */
+    private void showFriends() {
+        String uid = FirebaseUtils.getCurrentUid();
+        if (uid == null) {
+            tvStatus.setText("Not logged in");
+            return;
+        }
+
+        friends = new FriendsRanking(uid, new FriendsRanking.Listener() {
+            @Override
+            public void onRanked(List<LiveTopBoard.Row> rows) {
+                adapter.submitList(rows);
+                tvStatus.setText(rows.size() <= 1 ? "Add friends to compare steps" : "");
+            }
+
+            @Override
+            public void onError(DatabaseError error) {
+                tvStatus.setText("Failed loading friends: " + error.getMessage());
+            }
+        });
+        friends.start();
+    }
+
+    private void maybeLoadMore() {
+        if (live == null || !hasMore) return;
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible >= adapter.getItemCount() - PREFETCH_ROWS) {
+            hasMore = false; // until the wider window reports back
+            live.loadMore();
+        }
+    }
+
+    private void stopLive() {
+        if (live != null) {
+            live.stop();
+            live = null;
+        }
+        if (friends != null) {
+            friends.stop();
+            friends = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -11,6 +11,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
 import com.example.duowalk.R;
+import com.example.duowalk.services.StepCounterService;
 import com.example.duowalk.utils.PermissionsUtils;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.location.FusedLocationProviderClient;
@@ -225,6 +226,15 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         enableMyLocationAndMaybeCenter();
     }
 
+    /**
+     * Leaving the screen: the step tracker can slow its sync cadence again.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        StepCounterService.notifyUiHidden(this);
+    }
+
     /**
      * When returning to this activity:
      * - If user went to Settings because they permanently denied permission, re-check it now.
@@ -234,6 +244,9 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     protected void onResume() {
         super.onResume();
 
+        // Screen is visible -> let the step tracker deliver any batched steps now
+        StepCounterService.notifyUiVisible(this);
+
         // Returned from Settings flow: re-check permission and act
         if (returnedFromSettings) {
             returnedFromSettings = false;
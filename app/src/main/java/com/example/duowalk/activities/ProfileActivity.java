@@ -12,7 +12,9 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.duowalk.R;
 import com.example.duowalk.services.StepCounterService;
+import com.example.duowalk.utils.DayClock;
 import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepHistoryIndex;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
@@ -22,6 +24,7 @@ public class ProfileActivity extends AppCompatActivity {
 
     private TextView tvUsername;
     private TextView tvPhoneNum;
+    private TextView tvStepHistory;
     private Button btnDeleteUser;
 
     @Override
@@ -31,6 +34,7 @@ public class ProfileActivity extends AppCompatActivity {
 
         tvUsername = findViewById(R.id.tv_username);
         tvPhoneNum = findViewById(R.id.tv_phonenum);
+        tvStepHistory = findViewById(R.id.tv_step_history);
         btnDeleteUser = findViewById(R.id.btn_delete_user);
 
         loadUsername();
@@ -68,13 +72,14 @@ public class ProfileActivity extends AppCompatActivity {
         String uid = FirebaseUtils.getCurrentUid();
         if (uid == null) return;
 
+        // Leaf read: the rest of /users/{uid} is never downloaded just for the phone
         FirebaseUtils.getOnceAt(
-                FirebaseUtils.usersRef,
-                uid,
+                FirebaseUtils.usersRef.child(uid),
+                "phoneNum",
                 new ValueEventListener() {
                     @Override
                     public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        String phone = snapshot.child("phoneNum").getValue(String.class);
+                        String phone = snapshot.getValue(String.class);
                         if (phone != null && !phone.isEmpty()) {
                             tvPhoneNum.setText(phone);
                         }
@@ -86,6 +91,16 @@ public class ProfileActivity extends AppCompatActivity {
         );
     }
 
+    /** Step totals from the local history index (no network round-trip). */
+    private void loadStepHistory() {
+        StepHistoryIndex history = StepHistoryIndex.get(this);
+        int today = DayClock.get().today().index;
+
+        tvStepHistory.setText(history.sumLastDays(today, 7)
+                + " / " + history.sumLastDays(today, 30)
+                + " / " + history.sumLastDays(today, 365));
+    }
+
     private void showDeleteConfirmDialog() {
         new AlertDialog.Builder(this)
                 .setTitle("Delete account")
@@ -132,5 +147,6 @@ public class ProfileActivity extends AppCompatActivity {
         super.onResume();
         loadUsername();
         loadPhoneNumber();
+        loadStepHistory();
     }
 }
\ No newline at end of file
@@ -1,20 +1,121 @@
 package com.example.duowalk.activities;
 
 import android.os.Bundle;
+import android.text.format.DateFormat;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.duowalk.R;
+import com.example.duowalk.services.StepCounterService;
+import com.example.duowalk.services.StepSnapshot;
+import com.example.duowalk.utils.DayClock;
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepHistoryIndex;
+import com.example.duowalk.utils.StepPercentileAggregator;
+import com.example.duowalk.utils.StepPercentiles;
+import com.example.duowalk.utils.StepSyncOutbox;
+import com.example.duowalk.utils.StepTimeSeries;
+
+import java.util.Date;
 
 public class StepsActivity extends AppCompatActivity {
+
+    private TextView tvTodaySteps;
+    private TextView tvLastHourSteps;
+    private TextView tvActiveMinutes;
+    private TextView tvWeekSteps;
+    private TextView tvHistoryStats;
+    private TextView tvPercentile;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_steps);
 
+        tvTodaySteps = findViewById(R.id.tv_today_steps);
+        tvLastHourSteps = findViewById(R.id.tv_last_hour_steps);
+        tvActiveMinutes = findViewById(R.id.tv_active_minutes);
+        tvWeekSteps = findViewById(R.id.tv_week_steps);
+        tvHistoryStats = findViewById(R.id.tv_history_stats);
+        tvPercentile = findViewById(R.id.tv_percentile);
+
         Button btn = findViewById(R.id.btn_start_walk);
         btn.setOnClickListener(v ->
                 Toast.makeText(this, "Started a walk", Toast.LENGTH_SHORT).show());
     }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        StepCounterService.notifyUiHidden(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Drain batched sensor events so the numbers on screen are fresh
+        StepCounterService.notifyUiVisible(this);
+        showLocalStats();
+    }
+
+    /** Everything here is local (tracker snapshot + per-minute buffer), no network reads. */
+    private void showLocalStats() {
+        long now = System.currentTimeMillis();
+        DayClock.Day today = DayClock.get().today();
+        StepTimeSeries series = StepTimeSeries.get(this);
+
+        StepSnapshot snap = StepCounterService.getSnapshot();
+        int todaySteps = (snap != null && today.key.equals(snap.dateKey))
+                ? snap.todaySteps
+                : series.sumDay(today);
+
+        tvTodaySteps.setText("Today's Steps: " + todaySteps);
+        tvLastHourSteps.setText("Last hour: " + series.sumLastHour(now));
+        tvActiveMinutes.setText("Active minutes today: " + series.activeMinutes(today.startMs, now));
+        tvWeekSteps.setText("Last 7 days: " + series.sumWeek(today));
+
+        // Longer ranges come from the day-indexed history (O(log n) per query)
+        StepHistoryIndex history = StepHistoryIndex.get(this);
+        int from = today.index - 29;
+        int bestDay = history.bestDay(from, today.index);
+        String best = (bestDay >= 0) ? String.valueOf(history.get(bestDay)) : "-";
+        tvHistoryStats.setText("Last 30 days: " + history.sum(from, today.index)
+                + " (avg " + Math.round(history.average(from, today.index)) + "/day, best " + best + ")");
+
+        showPercentile(todaySteps, series, now);
+    }
+
+    /**
+     * Global rank from the cached percentile sketch (one small download per hour at most).
+     * The daily sketch is hours old by design, so it is compared against our steps at the
+     * time it was built (today minus what this device counted since), and labelled with it.
+     */
+    private void showPercentile(int ownTodaySteps, StepTimeSeries series, long now) {
+        // Account totals (all devices) when known, this device otherwise
+        FirebaseUtils.StepTotals totals = StepSyncOutbox.get(this).getPublicTotals();
+        long todaySteps = (totals != null && DayClock.get().todayKey().equals(totals.date))
+                ? Math.max(totals.today, ownTodaySteps)
+                : ownTodaySteps;
+
+        StepPercentiles.StepsAt stepsAt = asOf -> (asOf <= 0L || asOf >= now)
+                ? todaySteps
+                : Math.max(0L, todaySteps - series.sum(asOf, now));
+
+        StepPercentiles.lookup(this, StepPercentileAggregator.BOARD_DAILY, stepsAt, (daily, asOf) -> {
+            if (isFinishing() || isDestroyed()) return;
+            String text = (daily < 0) ? "" : "Today you walked more than "
+                    + Math.round(daily) + "% of DuoWalk users"
+                    + (asOf > 0L ? " (as of " + DateFormat.getTimeFormat(this).format(new Date(asOf)) + ")" : "");
+            tvPercentile.setText(text);
+            if (totals == null) return;
+
+            StepPercentiles.lookup(this, StepPercentileAggregator.BOARD_ALL_TIME, totals.allTime, (all, allAsOf) -> {
+                if (isFinishing() || isDestroyed() || all < 0) return;
+                tvPercentile.setText((text.isEmpty() ? "" : text + "\n")
+                        + "All time: ahead of " + Math.round(all) + "%");
+            });
+        });
+    }
 }
@@ -0,0 +1,69 @@
+package com.example.duowalk.adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.duowalk.R;
+import com.example.duowalk.utils.LiveTopBoard;
+
+/**
+ * LeaderboardAdapter
+ *
+ * Recycled rows for LiveTopBoard. submitList() diffs on a background thread and only
+ * rebinds rows whose rank / name / steps changed, and animates rows that moved.
+ */
+public class LeaderboardAdapter extends ListAdapter<LiveTopBoard.Row, LeaderboardAdapter.RowHolder> {
+
+    private static final DiffUtil.ItemCallback<LiveTopBoard.Row> DIFF =
+            new DiffUtil.ItemCallback<LiveTopBoard.Row>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull LiveTopBoard.Row a, @NonNull LiveTopBoard.Row b) {
+                    return a.uid.equals(b.uid);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull LiveTopBoard.Row a, @NonNull LiveTopBoard.Row b) {
+                    return a.sameContent(b);
+                }
+            };
+
+    public LeaderboardAdapter() {
+        super(DIFF);
+    }
+
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_leaderboard_row, parent, false);
+        return new RowHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        LiveTopBoard.Row row = getItem(position);
+        holder.tvRank.setText(String.valueOf(row.rank));
+        holder.tvUsername.setText(row.username);
+        holder.tvSteps.setText(String.valueOf(row.steps));
+    }
+
+    static class RowHolder extends RecyclerView.ViewHolder {
+        final TextView tvRank;
+        final TextView tvUsername;
+        final TextView tvSteps;
+
+        RowHolder(View v) {
+            super(v);
+            tvRank = v.findViewById(R.id.tv_rank);
+            tvUsername = v.findViewById(R.id.tv_username);
+            tvSteps = v.findViewById(R.id.tv_steps);
+        }
+    }
+}
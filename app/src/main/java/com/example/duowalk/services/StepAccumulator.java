@@ -0,0 +1,322 @@
+package com.example.duowalk.services;
+
+import android.content.SharedPreferences;
+
+import com.example.duowalk.utils.DayClock;
+
+/**
+ * StepAccumulator
+ *
+ * In-memory step state used by StepCounterService.
+ *
+ * - Sensor events only touch primitive fields (no allocation, no disk I/O).
+ * - State is written to "steps_prefs" as a checkpoint when enough time passed
+ *   or enough steps were counted since the last one, and on demand
+ *   (service destroyed / memory trimmed).
+ * - After a process kill we lose at most one checkpoint interval of steps.
+ * - Day boundaries come from DayClock. A delta whose readings straddle midnight
+ *   is split between the two days by event time, instead of being dropped or
+ *   credited entirely to the new day.
+ */
+public class StepAccumulator {
+
+    // ======= SharedPreferences keys (same file/keys the service always used) =======
+    static final String K_TODAY_STEPS = "today_steps";
+    static final String K_ALL_TIME_STEPS = "all_time_steps";
+    static final String K_TODAY_DATE = "today_date";
+    static final String K_LAST_SENSOR_VALUE = "last_sensor_value";
+    static final String K_LAST_EVENT_MS = "last_event_ms";
+    static final String K_PREV_DATE = "prev_date";
+    static final String K_PREV_STEPS = "prev_steps";
+    static final String K_PREV_DAY_START_MS = "prev_day_start_ms";
+    static final String K_PREV_INDEX = "prev_index";
+    static final String K_PREV_DIRTY = "prev_dirty";
+
+    // ======= Checkpoint thresholds =======
+    static final long CHECKPOINT_EVERY_MS = 60_000L;
+    static final int CHECKPOINT_EVERY_STEPS = 100;
+
+    private final SharedPreferences sp;
+
+    private int todaySteps;
+    private long allTimeSteps;
+    private String todayDate;
+    private float lastSensorValue = -1f; // -1 = no baseline yet
+    private long lastEventMs;            // wall time of lastSensorValue (0 = unknown)
+
+    // Bounds + DayClock index of todayDate (set by ensureDay; 0 until the first call)
+    private long dayStartMs;
+    private long dayEndMs;
+    private int todayIndex;
+
+    // The day before todayDate: can still receive late (batched) steps after midnight
+    private String prevDate;
+    private int prevSteps;
+    private long prevDayStartMs;
+    private int prevIndex = -1; // DayClock index of prevDate (not always todayIndex - 1)
+    private boolean prevDirty;
+
+    private long lastCheckpointMs;
+    private int stepsSinceCheckpoint;
+    private boolean dirty;
+
+    public StepAccumulator(SharedPreferences sp) {
+        this.sp = sp;
+    }
+
+    /** Loads the last checkpoint into memory. Call once when the service starts. */
+    public void load(long nowMs) {
+        todaySteps = sp.getInt(K_TODAY_STEPS, 0);
+        allTimeSteps = sp.getLong(K_ALL_TIME_STEPS, 0L);
+        todayDate = sp.getString(K_TODAY_DATE, null);
+        lastSensorValue = sp.getFloat(K_LAST_SENSOR_VALUE, -1f);
+        lastEventMs = sp.getLong(K_LAST_EVENT_MS, 0L);
+
+        prevDate = sp.getString(K_PREV_DATE, null);
+        prevSteps = sp.getInt(K_PREV_STEPS, 0);
+        prevDayStartMs = sp.getLong(K_PREV_DAY_START_MS, 0L);
+        prevIndex = sp.getInt(K_PREV_INDEX, indexOf(prevDate));
+        // Late steps for the previous day that were counted but not synced before the kill
+        prevDirty = sp.getBoolean(K_PREV_DIRTY, false);
+
+        lastCheckpointMs = nowMs;
+        stepsSinceCheckpoint = 0;
+        dirty = false;
+    }
+
+    // =========================
+    // Hot path
+    // =========================
+
+    /**
+     * Applies a raw TYPE_STEP_COUNTER value (total steps since boot).
+     * Call ensureDay() first if eventMs is past today's end (see isPastDayEnd()).
+     *
+     * @param eventMs wall-clock time of the reading (from SensorEvent.timestamp)
+     * @return number of steps added (0 for a new baseline / sensor reset)
+     */
+    public int onSensorValue(float sensorValue, long eventMs) {
+        float last = lastSensorValue;
+        long lastMs = lastEventMs;
+        lastSensorValue = sensorValue;
+        lastEventMs = eventMs;
+        dirty = true;
+
+        // First reading after start / reset -> baseline only
+        if (last < 0f) return 0;
+
+        // Reboot / sensor reset (value went down) -> new baseline, do not add steps
+        if (sensorValue < last) return 0;
+
+        int delta = (int) Math.floor(sensorValue - last);
+        if (delta <= 0) return 0;
+
+        allTimeSteps += delta;
+        stepsSinceCheckpoint += delta;
+
+        if (lastMs <= 0L || lastMs >= dayStartMs) {
+            // Both readings inside today
+            todaySteps += delta;
+            return delta;
+        }
+
+        // Previous reading is before today's midnight -> split by time
+        long span = Math.max(1L, eventMs - lastMs);
+        int todayPart = (eventMs > dayStartMs)
+                ? (int) (delta * (eventMs - dayStartMs) / span)
+                : 0;
+        todaySteps += todayPart;
+
+        if (prevDate != null && lastMs >= prevDayStartMs) {
+            prevSteps += delta - todayPart;
+            prevDirty = true;
+        }
+        // else: the gap covers days we no longer track -> counted in all-time only
+
+        return delta;
+    }
+
+    /**
+     * Re-applies a journal record written after the last checkpoint
+     * (process was killed before it could checkpoint). Call after ensureDay().
+     */
+    public void replay(long eventMs, float sensorValue, int delta, int dayIndex) {
+        lastSensorValue = sensorValue;
+        lastEventMs = eventMs;
+        dirty = true;
+
+        if (delta <= 0) return;
+
+        allTimeSteps += delta;
+        if (dayIndex == todayIndex) {
+            todaySteps += delta;
+        } else if (dayIndex == prevIndex && prevDate != null) {
+            prevSteps += delta;
+            prevDirty = true;
+        }
+    }
+
+    /** DayClock index of the day an event belongs to (today or the previous tracked day). */
+    public int dayIndexFor(long eventMs) {
+        if (eventMs >= dayStartMs) return todayIndex;
+        return (prevDate != null && eventMs >= prevDayStartMs) ? prevIndex : todayIndex - 1;
+    }
+
+    /** Single comparison used per event: has eventMs left today's bounds? */
+    public boolean isPastDayEnd(long eventMs) {
+        return eventMs >= dayEndMs;
+    }
+
+    /** True when the time or step threshold for a durable checkpoint was reached. */
+    public boolean shouldCheckpoint(long nowMs) {
+        if (!dirty) return false;
+        return stepsSinceCheckpoint >= CHECKPOINT_EVERY_STEPS
+                || nowMs - lastCheckpointMs >= CHECKPOINT_EVERY_MS;
+    }
+
+    // =========================
+    // Day handling
+    // =========================
+
+    /**
+     * Makes sure in-memory state belongs to day.
+     * New day -> today's total moves to "previous day", today restarts at 0,
+     * all-time is kept. The sensor baseline is kept so the next delta can be split.
+     *
+     * @return true if the day changed
+     */
+    public boolean ensureDay(DayClock.Day day) {
+        if (day.startMs == dayStartMs) return false;
+
+        if (todayDate == null || todayDate.equals(day.key)) {
+            // First call after load, or same day with new bounds (timezone change)
+            todayDate = day.key;
+            dayStartMs = day.startMs;
+            dayEndMs = day.endMs;
+            todayIndex = day.index;
+            dirty = true;
+            return false;
+        }
+
+        // The service may have been down for days: prevDate is not necessarily yesterday
+        prevDate = todayDate;
+        prevIndex = indexOf(todayDate);
+        prevSteps = todaySteps;
+        prevDayStartMs = (dayStartMs > 0L) ? dayStartMs : day.startMs - 24L * 60L * 60L * 1000L;
+        prevDirty = true;
+
+        todayDate = day.key;
+        dayStartMs = day.startMs;
+        dayEndMs = day.endMs;
+        todayIndex = day.index;
+        todaySteps = 0;
+
+        // Without a reading time we cannot split -> avoid huge delta across day boundary
+        if (lastEventMs <= 0L) lastSensorValue = -1f;
+
+        dirty = true;
+        return true;
+    }
+
+    // =========================
+    // Checkpoints
+    // =========================
+
+    /**
+     * Writes the in-memory state to SharedPreferences.
+     *
+     * - Uses commit(), not apply(): the caller compacts the step journal once this
+     *   returns true, so the state must already be on disk. Only call it from the
+     *   tracker thread.
+     * - A failed write keeps the state dirty, so the next checkpoint retries it.
+     *
+     * @return true if the current state is on disk
+     */
+    public boolean checkpoint(long nowMs) {
+        if (!dirty) return true;
+
+        SharedPreferences.Editor ed = sp.edit()
+                .putInt(K_TODAY_STEPS, todaySteps)
+                .putLong(K_ALL_TIME_STEPS, allTimeSteps)
+                .putString(K_TODAY_DATE, todayDate)
+                .putLong(K_LAST_EVENT_MS, lastEventMs)
+                .putString(K_PREV_DATE, prevDate)
+                .putInt(K_PREV_STEPS, prevSteps)
+                .putLong(K_PREV_DAY_START_MS, prevDayStartMs)
+                .putInt(K_PREV_INDEX, prevIndex)
+                .putBoolean(K_PREV_DIRTY, prevDirty);
+
+        if (lastSensorValue < 0f) {
+            ed.remove(K_LAST_SENSOR_VALUE);
+        } else {
+            ed.putFloat(K_LAST_SENSOR_VALUE, lastSensorValue);
+        }
+        if (!ed.commit()) return false;
+
+        lastCheckpointMs = nowMs;
+        stepsSinceCheckpoint = 0;
+        dirty = false;
+        return true;
+    }
+
+    // =========================
+    // Getters
+    // =========================
+
+    public int getTodaySteps() {
+        return todaySteps;
+    }
+
+    public long getAllTimeSteps() {
+        return allTimeSteps;
+    }
+
+    public String getTodayDate() {
+        return todayDate;
+    }
+
+    /** DayClock index of todayDate (valid after ensureDay()). */
+    public int getTodayIndex() {
+        return todayIndex;
+    }
+
+    /** Wall time of the last sensor reading (0 = unknown). */
+    public long getLastEventMs() {
+        return lastEventMs;
+    }
+
+    /** Previous day's key, or null. */
+    public String getPrevDate() {
+        return prevDate;
+    }
+
+    /** DayClock index of getPrevDate(), or -1. */
+    public int getPrevIndex() {
+        return prevIndex;
+    }
+
+    public int getPrevSteps() {
+        return prevSteps;
+    }
+
+    /** True if the previous day's total changed since the last markPrevSynced(). */
+    public boolean isPrevDirty() {
+        return prevDirty;
+    }
+
+    /** Clears isPrevDirty(); the cleared flag is persisted with the next checkpoint. */
+    public void markPrevSynced() {
+        if (!prevDirty) return;
+        prevDirty = false;
+        dirty = true;
+    }
+
+    private static int indexOf(String dateKey) {
+        if (dateKey == null || dateKey.length() != 10) return -1;
+        try {
+            return DayClock.indexOfKey(dateKey);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
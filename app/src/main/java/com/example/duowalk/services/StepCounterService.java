@@ -9,55 +9,121 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
+import com.example.duowalk.utils.DayClock;
 import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepHistoryIndex;
+import com.example.duowalk.utils.StepJournal;
+import com.example.duowalk.utils.StepSyncOutbox;
+import com.example.duowalk.utils.StepTimeSeries;
+import com.example.duowalk.utils.TopLeaderboards;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+public class StepCounterService extends Service implements SensorEventListener2 {
 
-public class StepCounterService extends Service implements SensorEventListener {
+    private static final String TAG = "StepCounterService";
 
     // ======= SharedPreferences =======
+    // (step keys live in StepAccumulator)
     private static final String PREFS = "steps_prefs";
-    private static final String K_TODAY_STEPS = "today_steps";
-    private static final String K_ALL_TIME_STEPS = "all_time_steps";
-    private static final String K_TODAY_DATE = "today_date";
-    private static final String K_LAST_SENSOR_VALUE = "last_sensor_value";
+    private static final String K_REPORT_LATENCY_MS = "report_latency_ms";
 
     // ======= Foreground notification =======
     private static final String CHANNEL_ID = "steps_channel";
     private static final int NOTIF_ID = 1001;
 
-    // ======= Sync interval =======
-    private static final long SYNC_EVERY_MS = 4000;
+    // ======= Sync cadence =======
+    // Fast while walking or while a steps screen is open, then exponential backoff when idle.
+    // Once the backoff passes SYNC_MAX_MS the tick stops; uploads go through StepSyncJobService.
+    private static final long SYNC_FAST_MS = 4000;
+    private static final long SYNC_MAX_MS = 15 * 60_000L;
+    // Queued steps that justify asking the system for an upload job
+    private static final int SYNC_JOB_STEP_THRESHOLD = 500;
+    // Longer than the sensor report latency, so batched deliveries still count as "walking"
+    private static final long WALKING_WINDOW_MS = 3 * 60_000L;
+
+    // ======= Sensor batching =======
+    // Steps only need to reach us within a minute or two, so let the sensor hub
+    // queue them in its FIFO instead of waking the app on every counter change.
+    private static final long DEFAULT_REPORT_LATENCY_MS = 90_000L;
+
+    // ======= Intents from the UI =======
+    public static final String ACTION_UI_VISIBLE = "com.example.duowalk.action.STEPS_UI_VISIBLE";
+    public static final String ACTION_UI_HIDDEN = "com.example.duowalk.action.STEPS_UI_HIDDEN";
+
+    /** True while the service is alive in this process (used to avoid starting it from the UI). */
+    private static volatile boolean running = false;
+
+    /** Latest totals published by the tracker thread (read from any thread). */
+    private static volatile StepSnapshot snapshot;
 
     private SharedPreferences sp;
+    private StepAccumulator steps;
+    private StepTimeSeries timeSeries;
+    private StepJournal journal; // null if the journal file could not be mapped
+    private StepHistoryIndex history;
+    private StepSyncOutbox outbox;
+    private final DayClock dayClock = DayClock.get();
     private SensorManager sensorManager;
     private Sensor stepCounterSensor;
 
+    // Tracker thread: owns step state, sensor callbacks and sync ticks.
+    // Nothing in here runs on the main looper.
+    private HandlerThread trackerThread;
     private Handler handler;
     private Runnable syncRunnable;
 
     private FirebaseAuth.AuthStateListener authListener;
+
+    // Other devices of the account (small node) -> account totals for the public copies
+    private DatabaseReference devicesRef;
+    private ValueEventListener devicesListener;
     private boolean isTracking = false;
 
+    // Cached uid (updated by the auth listener) so sensor events never hit FirebaseAuth
+    private String cachedUid;
+
+    // True when the sensor was registered with a max report latency (hardware FIFO)
+    private boolean isBatching = false;
+
+    // ======= Sync state (tracker thread) =======
+    private long syncIntervalMs = SYNC_FAST_MS;
+    private boolean syncTickScheduled = false;
+    private long allTimeAtLastJob = -1L;
+    private long lastStepAtMs = 0L;
+    private boolean uiVisible = false;
+
+    // Last values queued for Firebase -> unchanged totals are never re-written
+    private String lastSyncedDate;
+    private int lastSyncedToday = -1;
+    private long lastSyncedAllTime = -1L;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         sp = getSharedPreferences(PREFS, MODE_PRIVATE);
+        steps = new StepAccumulator(sp);
+        running = true;
+
+        // Recompute the cached day when the clock / timezone changes
+        dayClock.registerReceiver(this);
 
         // Foreground must start quickly after startForegroundService()
         startForegroundNotification("Starting step tracking...");
@@ -67,49 +133,137 @@ public class StepCounterService extends Service implements SensorEventListener {
                 ? sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER)
                 : null;
 
-        handler = new Handler(Looper.getMainLooper());
-
-        // Run sync every 4 seconds (only uploads if logged in)
+        trackerThread = new HandlerThread("StepTracker", Process.THREAD_PRIORITY_BACKGROUND);
+        trackerThread.start();
+        handler = new Handler(trackerThread.getLooper());
+
+        // Load the last checkpoint on the tracker thread (disk read)
+        handler.post(() -> {
+            steps.load(System.currentTimeMillis());
+            steps.ensureDay(dayClock.today());
+            timeSeries = StepTimeSeries.get(this);
+            history = StepHistoryIndex.get(this);
+            outbox = StepSyncOutbox.get(this);
+            openJournalAndRecover();
+            publishSnapshot();
+        });
+
+        // Sync tick: queues changed totals, interval adapts to activity (see nextSyncInterval).
+        // It only runs while there is activity; when idle it hands over to the job and stops.
         syncRunnable = new Runnable() {
             @Override
             public void run() {
+                syncTickScheduled = false;
+
                 ensureTodayNotStale();
                 syncToFirebaseIfLoggedIn();
-                handler.postDelayed(this, SYNC_EVERY_MS);
+
+                checkpointIfDue();
+                publishSnapshot();
+
+                long next = nextSyncInterval(System.currentTimeMillis());
+                if (next > SYNC_MAX_MS) {
+                    // Idle: no timer until the next step / visible screen
+                    checkpoint();
+                    scheduleSyncJobIfPending();
+                    syncIntervalMs = SYNC_FAST_MS;
+                    return;
+                }
+
+                syncIntervalMs = next;
+                handler.postDelayed(this, syncIntervalMs);
+                syncTickScheduled = true;
             }
         };
-        handler.postDelayed(syncRunnable, SYNC_EVERY_MS);
+        handler.postDelayed(syncRunnable, SYNC_FAST_MS);
+        syncTickScheduled = true;
 
-        // Track login/logout in real time
+        // Track login/logout in real time (callback arrives on main -> hand off to tracker)
         authListener = firebaseAuth -> {
             String uid = FirebaseUtils.getCurrentUid();
-            if (uid != null) {
-                // Logged in -> start tracking
-                startTrackingIfNeeded();
-                updateNotificationText("Tracking steps (logged in)");
-            } else {
-                // Logged out -> stop tracking + stop uploading
-                stopTrackingIfNeeded();
-                updateNotificationText("Login required to track steps");
-                // Option: stop the service entirely on logout:
-                // stopSelf();
-            }
+            handler.post(() -> applyAuthState(uid));
         };
 
         FirebaseUtils.authFB.addAuthStateListener(authListener);
 
+        // Housekeeping for the RTDB history (no-op if already scheduled)
+        StepHistoryCompactionJobService.schedule(this);
+        StepPercentileJobService.scheduleIfAdmin(this);
+
         // Initial state
-        if (FirebaseUtils.getCurrentUid() != null) {
+        String uid = FirebaseUtils.getCurrentUid();
+        handler.post(() -> applyAuthState(uid));
+    }
+
+    /** Runs on the tracker thread. */
+    private void applyAuthState(String uid) {
+        cachedUid = uid;
+        watchPeerDevices(uid);
+        if (uid != null) {
+            // Queued totals from another account must not be uploaded for this one
+            outbox.bindUser(uid);
+            // Accounts from before phone canonicalization move to the canonical index key
+            FirebaseUtils.rekeyLegacyPhone(uid);
+            // Logged in -> start tracking
             startTrackingIfNeeded();
             updateNotificationText("Tracking steps (logged in)");
         } else {
+            // Logged out -> stop tracking + stop uploading
             stopTrackingIfNeeded();
             updateNotificationText("Login required to track steps");
+            // Option: stop the service entirely on logout:
+            // stopSelf();
+        }
+    }
+
+    /**
+     * Listens to /users/{uid}/steps/devices (a few fields per device) and hands the other
+     * devices' totals to the outbox, which adds them to ours for the public copies.
+     */
+    private void watchPeerDevices(String uid) {
+        if (devicesRef != null && devicesListener != null) {
+            devicesRef.removeEventListener(devicesListener);
+        }
+        devicesRef = null;
+        if (uid == null) return;
+
+        final String ownDeviceId = outbox.getDeviceId();
+        if (devicesListener == null) {
+            devicesListener = new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    FirebaseUtils.StepTotals peers = FirebaseUtils.peerTotals(snapshot, ownDeviceId);
+                    outbox.setPeerTotals(peers.date, peers.today, peers.allTime);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    Log.w(TAG, "Peer devices listener cancelled: " + error.getMessage());
+                }
+            };
         }
+
+        devicesRef = FirebaseUtils.usersRef.child(uid).child("steps").child("devices");
+        devicesRef.addValueEventListener(devicesListener);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // A steps screen became visible -> drain the sensor FIFO so it shows fresh numbers
+        if (intent != null && ACTION_UI_VISIBLE.equals(intent.getAction())) {
+            handler.post(() -> {
+                uiVisible = true;
+                flushSensorIfBatching();
+                speedUpSync();
+            });
+        } else if (intent != null && ACTION_UI_HIDDEN.equals(intent.getAction())) {
+            handler.post(() -> {
+                uiVisible = false;
+                // Whatever the screen did not get to send goes through the job
+                scheduleSyncJobIfPending();
+            });
+        }
+
         // Keep service alive if killed
         return START_STICKY;
     }
@@ -117,16 +271,35 @@ public class StepCounterService extends Service implements SensorEventListener {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        running = false;
 
         if (FirebaseUtils.authFB != null && authListener != null) {
             FirebaseUtils.authFB.removeAuthStateListener(authListener);
         }
+        if (devicesRef != null && devicesListener != null) {
+            devicesRef.removeEventListener(devicesListener);
+        }
 
-        stopTrackingIfNeeded();
+        handler.removeCallbacks(syncRunnable);
 
-        if (handler != null && syncRunnable != null) {
-            handler.removeCallbacks(syncRunnable);
-        }
+        // Last work on the tracker thread, then let it finish
+        handler.post(() -> {
+            stopTrackingIfNeeded();
+            // Persist whatever was counted since the last checkpoint + final upload (via job)
+            checkpoint();
+            syncToFirebaseIfLoggedIn();
+            scheduleSyncJobIfPending();
+            publishSnapshot();
+            if (journal != null) journal.close();
+        });
+        trackerThread.quitSafely();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // We may be killed soon -> write a checkpoint now
+        handler.post(this::checkpoint);
     }
 
     // Unbound service => return null
@@ -136,6 +309,53 @@ public class StepCounterService extends Service implements SensorEventListener {
         return null;
     }
 
+    // =========================
+    // UI hooks
+    // =========================
+
+    /**
+     * Call from onResume() of screens that show step counts.
+     * Asks the running service to flush batched sensor events right away.
+     * Does nothing if the service is not running (we never start it from here).
+     */
+    public static void notifyUiVisible(Context context) {
+        sendUiAction(context, ACTION_UI_VISIBLE);
+    }
+
+    /** Call from onPause() of the same screens: lets the sync cadence back off again. */
+    public static void notifyUiHidden(Context context) {
+        sendUiAction(context, ACTION_UI_HIDDEN);
+    }
+
+    private static void sendUiAction(Context context, String action) {
+        if (!running) return;
+        Intent i = new Intent(context, StepCounterService.class);
+        i.setAction(action);
+        context.startService(i);
+    }
+
+    /**
+     * Latest step totals published by the tracker thread.
+     * Thread-safe, never blocks; may lag the sensor by up to one sync tick.
+     *
+     * @return null if the service has not published anything yet in this process
+     */
+    @Nullable
+    public static StepSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Changes how long the sensor may batch steps before delivering them.
+     * 0 disables batching. Applied the next time tracking starts.
+     */
+    public static void setReportLatencyMs(Context context, long latencyMs) {
+        context.getSharedPreferences(PREFS, MODE_PRIVATE)
+                .edit()
+                .putLong(K_REPORT_LATENCY_MS, Math.max(0L, latencyMs))
+                .apply();
+    }
+
     // =========================
     // Step Tracking
     // =========================
@@ -148,101 +368,256 @@ public class StepCounterService extends Service implements SensorEventListener {
         }
 
         ensureTodayNotStale();
-        sensorManager.registerListener(this, stepCounterSensor, SensorManager.SENSOR_DELAY_NORMAL);
-        isTracking = true;
+        isTracking = registerStepSensor();
+        if (!isTracking) updateNotificationText("Step sensor not available");
     }
 
     private void stopTrackingIfNeeded() {
         if (!isTracking) return;
         if (sensorManager != null) sensorManager.unregisterListener(this);
         isTracking = false;
+        isBatching = false;
+    }
+
+    /**
+     * Registers the step counter, batched in the sensor FIFO when the device has one.
+     * Falls back to the plain (non-batched) registration when the hardware has no FIFO,
+     * batching is disabled, or the batched registration is rejected.
+     * Events are delivered on the tracker thread.
+     */
+    private boolean registerStepSensor() {
+        long latencyMs = sp.getLong(K_REPORT_LATENCY_MS, DEFAULT_REPORT_LATENCY_MS);
+        boolean hasFifo = stepCounterSensor.getFifoMaxEventCount() > 0;
+
+        if (hasFifo && latencyMs > 0) {
+            int maxLatencyUs = (int) Math.min(Integer.MAX_VALUE, latencyMs * 1000L);
+            if (sensorManager.registerListener(this, stepCounterSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL, maxLatencyUs, handler)) {
+                isBatching = true;
+                return true;
+            }
+        }
+
+        isBatching = false;
+        return sensorManager.registerListener(this, stepCounterSensor,
+                SensorManager.SENSOR_DELAY_NORMAL, handler);
+    }
+
+    /** Delivers whatever is waiting in the FIFO now (no-op when not batching). */
+    private void flushSensorIfBatching() {
+        if (!isTracking || !isBatching || sensorManager == null) return;
+        sensorManager.flush(this);
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
         // Only count steps if logged in
-        if (FirebaseUtils.getCurrentUid() == null) return;
+        if (cachedUid == null) return;
 
         if (event.sensor.getType() != Sensor.TYPE_STEP_COUNTER) return;
 
-        ensureTodayNotStale();
-
-        float sensorValue = event.values[0]; // total steps since boot
-        float last = sp.getFloat(K_LAST_SENSOR_VALUE, -1f);
-
-        SharedPreferences.Editor ed = sp.edit();
-
-        if (last < 0f) {
-            // First reading today / after reset / after service starts
-            ed.putFloat(K_LAST_SENSOR_VALUE, sensorValue).apply();
-            return;
+        // Batched events can be older than "now": use the event's own time
+        long eventMs = DayClock.eventWallTimeMs(event.timestamp);
+        if (steps.isPastDayEnd(eventMs)) {
+            if (steps.ensureDay(dayClock.dayAt(eventMs))) checkpoint();
         }
 
-        // Handle reboot / sensor reset (value can go down)
-        if (sensorValue < last) {
-            // Set new baseline, do not add steps
-            ed.putFloat(K_LAST_SENSOR_VALUE, sensorValue).apply();
-            return;
+        // total steps since boot -> in-memory totals only
+        float sensorValue = event.values[0];
+        long prevEventMs = steps.getLastEventMs();
+        int added = steps.onSensorValue(sensorValue, eventMs);
+
+        // Raw reading -> append-only journal (cheap mmap write, survives a kill).
+        // A full log can only be compacted once its records are checkpointed.
+        if (journal != null) {
+            if (journal.isFull()) checkpoint();
+            journal.append(eventMs, sensorValue, added, steps.dayIndexFor(eventMs));
         }
 
-        int delta = (int) Math.floor(sensorValue - last);
-        if (delta > 0) {
-            int today = sp.getInt(K_TODAY_STEPS, 0) + delta;
-            long allTime = sp.getLong(K_ALL_TIME_STEPS, 0L) + delta;
+        if (added > 0) {
+            // Per-minute history for the Steps screen
+            timeSeries.recordSpread(prevEventMs, eventMs, added);
 
-            ed.putInt(K_TODAY_STEPS, today);
-            ed.putLong(K_ALL_TIME_STEPS, allTime);
+            // Walking -> sync at the fast cadence again
+            lastStepAtMs = System.currentTimeMillis();
+            speedUpSync();
         }
 
-        ed.putFloat(K_LAST_SENSOR_VALUE, sensorValue);
-        ed.apply();
+        checkpointIfDue();
     }
 
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {}
 
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        // Flushed events were already delivered through onSensorChanged() -> show them
+        publishSnapshot();
+    }
+
+    /** Runs on the tracker thread. Allocates only when the totals actually changed. */
+    private void publishSnapshot() {
+        String date = steps.getTodayDate();
+        int today = steps.getTodaySteps();
+        long allTime = steps.getAllTimeSteps();
+
+        StepSnapshot current = snapshot;
+        if (current != null && current.sameTotals(date, today, allTime)) return;
+
+        snapshot = new StepSnapshot(date, today, allTime, System.currentTimeMillis());
+    }
+
     // =========================
     // Daily reset
     // =========================
 
-    private String todayKey() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-        sdf.setTimeZone(TimeZone.getDefault());
-        return sdf.format(new Date());
+    private void ensureTodayNotStale() {
+        if (steps.ensureDay(dayClock.today())) {
+            // Day changed -> make the reset durable right away
+            checkpoint();
+            // ...and fold the raw journal into daily totals
+            if (journal != null) journal.compact();
+        }
     }
 
-    private void ensureTodayNotStale() {
-        String now = todayKey();
-        String saved = sp.getString(K_TODAY_DATE, null);
+    // =========================
+    // Checkpoints (tracker thread)
+    // =========================
+
+    private void checkpointIfDue() {
+        if (steps.shouldCheckpoint(System.currentTimeMillis())) checkpoint();
+    }
+
+    private void checkpoint() {
+        boolean durable = steps.checkpoint(System.currentTimeMillis());
+        if (timeSeries != null) timeSeries.save();
+        if (journal != null) {
+            journal.sync();
+            // Records may only be compacted away once the accumulator state is on disk
+            if (durable) journal.markCheckpoint(steps.getLastEventMs());
+        }
+        updateHistory();
+    }
 
-        if (saved == null) {
-            sp.edit().putString(K_TODAY_DATE, now).apply();
+    /** Pushes today's (and the previous tracked day's) totals into the local day-indexed history. */
+    private void updateHistory() {
+        if (history == null || steps.getTodayDate() == null) return;
+
+        history.set(steps.getTodayIndex(), steps.getTodaySteps());
+        if (steps.getPrevDate() != null && steps.getPrevIndex() >= 0) {
+            history.set(steps.getPrevIndex(), steps.getPrevSteps());
+        }
+        history.save();
+    }
+
+    /**
+     * Maps the step journal and replays records newer than the last checkpoint,
+     * so a kill between checkpoints does not lose steps.
+     */
+    private void openJournalAndRecover() {
+        try {
+            journal = StepJournal.open(getFilesDir());
+        } catch (Exception e) {
+            Log.w(TAG, "Step journal unavailable", e);
+            journal = null;
             return;
         }
 
-        if (!saved.equals(now)) {
-            // New day: reset ONLY today steps, keep all-time
-            sp.edit()
-                    .putString(K_TODAY_DATE, now)
-                    .putInt(K_TODAY_STEPS, 0)
-                    .remove(K_LAST_SENSOR_VALUE) // avoid huge delta across day boundary
-                    .apply();
+        // First run with the history index -> import what the journal already compacted
+        if (history.isEmpty()) {
+            history.seedMissing(journal.readDailyTotals());
         }
+
+        journal.forEachSince(steps.getLastEventMs(), steps::replay);
+        checkpoint();
     }
 
     // =========================
-    // Firebase Sync (every 4 sec)
+    // Firebase Sync (adaptive cadence + JobScheduler)
     // =========================
 
-    private void syncToFirebaseIfLoggedIn() {
-        String uid = FirebaseUtils.getCurrentUid();
-        if (uid == null) return;
+    /**
+     * Queues the totals in the outbox if they changed since they were last queued.
+     * While a steps screen is visible the outbox is written right away (live numbers);
+     * otherwise the upload is left to StepSyncJobService, scheduled when enough steps
+     * are queued or a day closed.
+     *
+     * @return true if something new was queued
+     */
+    private boolean syncToFirebaseIfLoggedIn() {
+        String uid = cachedUid;
+        if (uid == null) return false;
+
+        boolean queued = false;
+        boolean dayClosed = false;
+
+        String date = steps.getTodayDate();
+        if (date == null) date = dayClock.todayKey();
+        int today = steps.getTodaySteps();
+        long allTime = steps.getAllTimeSteps();
+
+        if (today != lastSyncedToday || allTime != lastSyncedAllTime || !date.equals(lastSyncedDate)) {
+            outbox.putDay(date, today);
+            outbox.putAllTime(allTime);
+            lastSyncedDate = date;
+            lastSyncedToday = today;
+            lastSyncedAllTime = allTime;
+            queued = true;
+        }
+
+        // Yesterday's final count (and any late batched steps that belong to it)
+        if (steps.isPrevDirty()) {
+            outbox.putDay(steps.getPrevDate(), steps.getPrevSteps());
+            steps.markPrevSynced();
+            queued = true;
+            dayClosed = true;
+        }
+
+        if (uiVisible) {
+            flushOutbox();
+        } else if (dayClosed || allTimeAtLastJob < 0L
+                || allTime - allTimeAtLastJob >= SYNC_JOB_STEP_THRESHOLD) {
+            scheduleSyncJobIfPending();
+        }
+        return queued;
+    }
+
+    /** Foreground path: one multi-path write for every pending day; at most one in flight. */
+    private void flushOutbox() {
+        if (outbox == null || cachedUid == null) return;
+
+        final String uid = cachedUid;
+        final StepSyncOutbox box = outbox;
+        box.flush(success -> {
+            if (!success) return;
+            TopLeaderboards.get(this).onTotalsSynced(uid, box.getPublicTotals());
+            // Totals changed while the write was in flight -> send them now
+            handler.post(() -> {
+                if (uiVisible && outbox != null && !outbox.isEmpty()) flushOutbox();
+            });
+        });
+    }
 
-        int today = sp.getInt(K_TODAY_STEPS, 0);
-        long allTime = sp.getLong(K_ALL_TIME_STEPS, 0L);
-        String date = sp.getString(K_TODAY_DATE, todayKey());
+    /** Background path: let the system upload the outbox when the network is available. */
+    private void scheduleSyncJobIfPending() {
+        if (outbox == null || outbox.isEmpty()) return;
+        StepSyncJobService.schedule(this);
+        allTimeAtLastJob = steps.getAllTimeSteps();
+    }
+
+    /** Fast while walking / UI visible, otherwise doubles (the tick stops past SYNC_MAX_MS). */
+    private long nextSyncInterval(long now) {
+        if (uiVisible || now - lastStepAtMs < WALKING_WINDOW_MS) return SYNC_FAST_MS;
+        return syncIntervalMs * 2;
+    }
 
-        FirebaseUtils.saveSteps(uid, date, today, allTime);
+    /** Brings the tick forward to the fast cadence (restarting it if it stopped). */
+    private void speedUpSync() {
+        if (syncTickScheduled && syncIntervalMs <= SYNC_FAST_MS) return;
+        syncIntervalMs = SYNC_FAST_MS;
+        handler.removeCallbacks(syncRunnable);
+        handler.postDelayed(syncRunnable, SYNC_FAST_MS);
+        syncTickScheduled = true;
     }
 
     // =========================
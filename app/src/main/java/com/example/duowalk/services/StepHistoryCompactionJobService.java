@@ -0,0 +1,60 @@
+package com.example.duowalk.services;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import com.example.duowalk.utils.DeviceId;
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepHistoryCompactor;
+
+/**
+ * StepHistoryCompactionJobService
+ *
+ * Periodic, fully deferrable job that runs StepHistoryCompactor (rolls step history
+ * older than the retention horizon into month/year totals).
+ *
+ * Only runs while charging, idle and on an unmetered network: it is housekeeping,
+ * nothing on screen depends on it.
+ */
+public class StepHistoryCompactionJobService extends JobService {
+
+    private static final int JOB_ID = 4202;
+    private static final long PERIOD_MS = 7L * 24L * 60L * 60L * 1000L;
+
+    /** Schedules the weekly job unless it is already scheduled. */
+    public static void schedule(Context context) {
+        JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (js == null) return;
+        if (js.getPendingJob(JOB_ID) != null) return;
+
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, StepHistoryCompactionJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .build();
+        js.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        String uid = FirebaseUtils.getCurrentUid();
+        if (uid == null) return false;
+
+        StepHistoryCompactor.run(this, uid, DeviceId.get(this),
+                success -> jobFinished(params, !success));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Each finished update is self-contained; the next run continues where this one stopped
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.duowalk.services;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepPercentileAggregator;
+import com.example.duowalk.utils.TopLeaderboards;
+import com.google.firebase.auth.FirebaseUser;
+
+/**
+ * StepPercentileJobService
+ *
+ * Periodic job that rebuilds the global percentile sketches (StepPercentileAggregator)
+ * and deletes expired daily / weekly top-N boards (TopLeaderboards.pruneOldBoards).
+ *
+ * Scheduled only for accounts with the "admin" custom claim (the only ones the rules let
+ * write /stats and delete whole boards). Runs on an unmetered network while charging: it
+ * pages through every public profile, which regular devices never have to do.
+ */
+public class StepPercentileJobService extends JobService {
+
+    private static final int JOB_ID = 4203;
+    private static final long PERIOD_MS = 6L * 60L * 60L * 1000L;
+
+    /** Schedules the job if the signed-in user is an admin, cancels it otherwise. */
+    public static void scheduleIfAdmin(Context context) {
+        FirebaseUser user = FirebaseUtils.authFB.getCurrentUser();
+        if (user == null) return;
+
+        Context app = context.getApplicationContext();
+        user.getIdToken(false).addOnSuccessListener(token -> {
+            JobScheduler js = (JobScheduler) app.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (js == null) return;
+
+            if (!Boolean.TRUE.equals(token.getClaims().get("admin"))) {
+                js.cancel(JOB_ID);
+                return;
+            }
+            if (js.getPendingJob(JOB_ID) != null) return;
+
+            JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(app, StepPercentileJobService.class))
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setRequiresCharging(true)
+                    .setPeriodic(PERIOD_MS)
+                    .setPersisted(true)
+                    .build();
+            js.schedule(job);
+        });
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (FirebaseUtils.getCurrentUid() == null) return false;
+
+        StepPercentileAggregator.run(success -> TopLeaderboards.pruneOldBoards(
+                (error, ref) -> jobFinished(params, !success || error != null)));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Nothing is written until the last page; the next run starts over
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.duowalk.services;
+
+/**
+ * StepSnapshot
+ *
+ * Immutable copy of the tracker's step totals.
+ * Published by StepCounterService from its tracker thread and safe to read
+ * from any thread (UI included) via StepCounterService.getSnapshot().
+ */
+public final class StepSnapshot {
+
+    public final String dateKey;
+    public final int todaySteps;
+    public final long allTimeSteps;
+
+    /** Wall-clock time the snapshot was taken (ms). */
+    public final long takenAtMs;
+
+    public StepSnapshot(String dateKey, int todaySteps, long allTimeSteps, long takenAtMs) {
+        this.dateKey = dateKey;
+        this.todaySteps = todaySteps;
+        this.allTimeSteps = allTimeSteps;
+        this.takenAtMs = takenAtMs;
+    }
+
+    /** True if this snapshot holds the same totals (time is ignored). */
+    boolean sameTotals(String dateKey, int todaySteps, long allTimeSteps) {
+        return this.todaySteps == todaySteps
+                && this.allTimeSteps == allTimeSteps
+                && (this.dateKey == null ? dateKey == null : this.dateKey.equals(dateKey));
+    }
+}
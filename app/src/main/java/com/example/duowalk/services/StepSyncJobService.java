@@ -0,0 +1,87 @@
+package com.example.duowalk.services;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.duowalk.utils.FirebaseUtils;
+import com.example.duowalk.utils.StepHistorySealer;
+import com.example.duowalk.utils.StepSyncOutbox;
+import com.example.duowalk.utils.TopLeaderboards;
+
+/**
+ * StepSyncJobService
+ *
+ * Short-lived JobScheduler job that uploads the StepSyncOutbox (and our top-N board
+ * entries, see TopLeaderboards), then seals completed months of history into packed
+ * values (StepHistorySealer).
+ *
+ * - Constrained on network connectivity, no deadline -> the OS runs it when the radio
+ *   is already up and batches it with other apps' jobs.
+ * - Scheduled by StepCounterService when enough steps were queued, when a day closes,
+ *   or when tracking goes idle with something still queued.
+ * - Persisted, so queued totals are still uploaded after a reboot.
+ */
+public class StepSyncJobService extends JobService {
+
+    private static final int JOB_ID = 4201;
+
+    /** Schedules the upload job unless one is already pending. */
+    public static void schedule(Context context) {
+        JobScheduler js = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (js == null) return;
+        if (js.getPendingJob(JOB_ID) != null) return;
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, StepSyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true)
+                .build();
+        js.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        String uid = FirebaseUtils.getCurrentUid();
+        StepSyncOutbox outbox = StepSyncOutbox.get(this);
+
+        // The queue belongs to a user that is no longer signed in
+        if (uid == null || !uid.equals(outbox.getUid())) return false;
+
+        boolean started = outbox.flush(success -> {
+            if (!success) {
+                jobFinished(params, true);
+                return;
+            }
+            TopLeaderboards.get(this).onTotalsSynced(uid, outbox.getPublicTotals());
+            if (!sealHistory(params, uid, outbox.getDeviceId())) jobFinished(params, false);
+        });
+        if (started) return true;
+
+        // Another write is in flight (service flushing in foreground). What it did not take
+        // stays queued -> finish with a reschedule (job backoff) instead of dropping the job
+        if (!outbox.isEmpty()) {
+            new Handler(Looper.getMainLooper()).post(() -> jobFinished(params, true));
+            return true;
+        }
+
+        // Nothing to upload, but completed months may still need sealing
+        return sealHistory(params, uid, outbox.getDeviceId());
+    }
+
+    /** Packs completed months (see StepHistorySealer). @return true if a write was started */
+    private boolean sealHistory(JobParameters params, String uid, String deviceId) {
+        return StepHistorySealer.sealCompletedMonths(this, uid, deviceId,
+                ok -> jobFinished(params, !ok));
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Lost connectivity mid-write: the outbox keeps everything, retry later
+        return true;
+    }
+}
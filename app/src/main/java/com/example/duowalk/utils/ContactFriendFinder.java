@@ -0,0 +1,332 @@
+package com.example.duowalk.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ContactFriendFinder
+ *
+ * Finds DuoWalk users in the address book through /phone_index/{sha256(E.164)} -> uid.
+ *
+ * Pipeline (one background thread drives it, results come back on the main thread):
+ * 1) Stream phone numbers from ContactsContract, only contacts updated since the last run
+ *    (full re-scan once a week, so contacts who joined later are found too).
+ * 2) Canonicalize + hash in chunks across a pool sized to the CPU count (IdentityKeys),
+ *    plus the legacy hashes of each number, so accounts not re-keyed yet are found too.
+ * 3) Deduplicate, and skip hashes whose answer is already cached.
+ * 4) Look the rest up in rounds, pausing between them. A round is LOOKUP_BATCH parallel
+ *    key-ordered range pages of /phone_index (RANGE_PAGE keys each): one page answers
+ *    every hash of ours up to its last key, so the sorted hashes are covered by a few
+ *    pages instead of one request per hash. Only if pages answer fewer than
+ *    MIN_ANSWERED_PER_PAGE hashes (index much denser than our hashes) does it switch to
+ *    LOOKUP_BATCH parallel leaf reads, which then move fewer bytes. A failed or timed-out
+ *    request ends the lookup; everything answered so far is still saved.
+ * 5) Cache hits (hash -> uid) and misses in "contact_friends" prefs. The scan time only
+ *    advances when every lookup succeeded: after a failed read the same contacts are
+ *    scanned again next run (answered ones come from the cache).
+ *
+ * Requires READ_CONTACTS (PermissionsUtils.permissionsForFriends()).
+ */
+public final class ContactFriendFinder {
+
+    private static final String TAG = "ContactFriendFinder";
+
+    private static final String PREFS = "contact_friends";
+    private static final String K_OWNER = "owner_uid";
+    private static final String K_LAST_SCAN_MS = "last_scan_ms";
+    private static final String K_LAST_FULL_SCAN_MS = "last_full_scan_ms";
+    private static final String K_MISSES = "misses";
+    private static final String MATCH_PREFIX = "m_";
+
+    private static final long FULL_RESCAN_EVERY_MS = 7L * 24L * 60L * 60L * 1000L;
+    private static final int HASH_CHUNK = 256;
+    private static final int LOOKUP_BATCH = 40;
+    // Must not exceed the query.limitToFirst bound on /phone_index in database.rules.json
+    private static final int RANGE_PAGE = 50;
+    private static final int MIN_ANSWERED_PER_PAGE = 4;
+    private static final long LOOKUP_PAUSE_MS = 200L;
+    private static final long LOOKUP_TIMEOUT_S = 20L;
+
+    private static final ExecutorService DRIVER = Executors.newSingleThreadExecutor();
+    private static final ExecutorService HASHERS =
+            Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** Results are delivered on the main thread. */
+    public interface Callback {
+        void onResult(List<String> friendUids);
+
+        void onError(String message);
+    }
+
+    private ContactFriendFinder() { }
+
+    /** Runs the pipeline for ownUid (ownUid itself is never returned). */
+    public static void find(Context context, String ownUid, Callback callback) {
+        Context app = context.getApplicationContext();
+        Handler main = new Handler(Looper.getMainLooper());
+
+        DRIVER.execute(() -> {
+            try {
+                List<String> uids = run(app, ownUid);
+                main.post(() -> callback.onResult(uids));
+            } catch (Exception e) {
+                Log.w(TAG, "Contact discovery failed", e);
+                main.post(() -> callback.onError(e.getMessage()));
+            }
+        });
+    }
+
+    // =========================
+    // Pipeline (driver thread)
+    // =========================
+
+    private static List<String> run(Context context, String ownUid) throws Exception {
+        SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        if (!ownUid.equals(sp.getString(K_OWNER, null))) {
+            sp.edit().clear().putString(K_OWNER, ownUid).apply();
+        }
+
+        long now = System.currentTimeMillis();
+        boolean full = now - sp.getLong(K_LAST_FULL_SCAN_MS, 0L) > FULL_RESCAN_EVERY_MS;
+        long since = full ? 0L : sp.getLong(K_LAST_SCAN_MS, 0L);
+
+        Set<String> misses = full
+                ? new HashSet<>()
+                : new HashSet<>(sp.getStringSet(K_MISSES, new HashSet<>()));
+        Map<String, String> matches = loadMatches(sp, full);
+
+        // 1) + 2) + 3)
+        Set<String> hashes = hashContacts(context.getContentResolver(), since);
+        List<String> toLookUp = new ArrayList<>();
+        for (String h : hashes) {
+            if (!matches.containsKey(h) && !misses.contains(h)) toLookUp.add(h);
+        }
+
+        // 4)
+        Lookup lookup = new Lookup(toLookUp, matches, misses);
+        boolean ranges = true;
+        for (int round = 0; !lookup.remaining.isEmpty(); round++) {
+            if (round > 0) Thread.sleep(LOOKUP_PAUSE_MS);
+
+            if (ranges) {
+                // Pages that answer almost nothing = the index is much denser than our
+                // hashes: single-key reads move fewer bytes from here on
+                ranges = lookup.rangeRound();
+            } else {
+                lookup.leafRound();
+            }
+            if (lookup.failed) break; // what is left is retried next run
+        }
+        boolean anyFailed = lookup.failed;
+
+        // 5)
+        SharedPreferences.Editor ed = sp.edit();
+        if (full) {
+            for (String key : sp.getAll().keySet()) {
+                if (key.startsWith(MATCH_PREFIX)) ed.remove(key);
+            }
+            if (!anyFailed) ed.putLong(K_LAST_FULL_SCAN_MS, now);
+        }
+        for (Map.Entry<String, String> e : matches.entrySet()) ed.putString(MATCH_PREFIX + e.getKey(), e.getValue());
+        ed.putStringSet(K_MISSES, misses);
+        if (!anyFailed) ed.putLong(K_LAST_SCAN_MS, now);
+        ed.apply();
+
+        Set<String> uids = new LinkedHashSet<>(matches.values());
+        uids.remove(ownUid);
+        return new ArrayList<>(uids);
+    }
+
+    /** Hashes still to answer, and where the answers go. Driver thread only. */
+    private static final class Lookup {
+        final TreeSet<String> remaining;
+        final Map<String, String> matches;
+        final Set<String> misses;
+        boolean failed = false;
+
+        Lookup(List<String> hashes, Map<String, String> matches, Set<String> misses) {
+            this.remaining = new TreeSet<>(hashes);
+            this.matches = matches;
+            this.misses = misses;
+        }
+
+        /**
+         * Up to LOOKUP_BATCH parallel range pages, starting at hashes spread evenly over
+         * the remaining ones.
+         *
+         * @return false if the full pages answered too few hashes to be worth it
+         */
+        boolean rangeRound() throws InterruptedException {
+            List<String> sorted = new ArrayList<>(remaining);
+            int n = Math.min(LOOKUP_BATCH, sorted.size());
+            List<String> starts = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) starts.add(sorted.get((int) ((long) i * sorted.size() / n)));
+
+            List<Task<DataSnapshot>> pages = new ArrayList<>(n);
+            for (String start : starts) {
+                pages.add(FirebaseUtils.phoneIndexRef.orderByKey().startAt(start).limitToFirst(RANGE_PAGE).get());
+            }
+            await(pages);
+
+            int fullPages = 0;
+            int answeredByFull = 0;
+            for (int i = 0; i < n; i++) {
+                Task<DataSnapshot> t = pages.get(i);
+                if (!t.isComplete() || !t.isSuccessful() || t.getResult() == null) {
+                    failed = true;
+                    continue;
+                }
+
+                int before = remaining.size();
+                int keys = 0;
+                String last = null;
+                for (DataSnapshot entry : t.getResult().getChildren()) {
+                    keys++;
+                    last = entry.getKey();
+                    Object owner = entry.getValue();
+                    if (owner != null && remaining.remove(last)) matches.put(last, String.valueOf(owner));
+                }
+
+                // Every hash of ours the page covers without an entry is a miss; a short
+                // page reached the end of the index, so it covers everything after start
+                String start = starts.get(i);
+                SortedSet<String> covered = (keys < RANGE_PAGE || last == null)
+                        ? remaining.tailSet(start)
+                        : remaining.subSet(start, true, last, true);
+                misses.addAll(covered);
+                covered.clear();
+
+                if (keys == RANGE_PAGE) {
+                    fullPages++;
+                    answeredByFull += before - remaining.size();
+                }
+            }
+            return fullPages == 0 || answeredByFull >= fullPages * MIN_ANSWERED_PER_PAGE;
+        }
+
+        /** LOOKUP_BATCH parallel leaf reads of the lowest remaining hashes. */
+        void leafRound() throws InterruptedException {
+            List<String> batch = new ArrayList<>(LOOKUP_BATCH);
+            for (String h : remaining) {
+                batch.add(h);
+                if (batch.size() == LOOKUP_BATCH) break;
+            }
+
+            List<Task<DataSnapshot>> reads = new ArrayList<>(batch.size());
+            for (String h : batch) reads.add(FirebaseUtils.phoneIndexRef.child(h).get());
+            await(reads);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Task<DataSnapshot> t = reads.get(i);
+                if (!t.isComplete() || !t.isSuccessful() || t.getResult() == null) {
+                    failed = true;
+                    continue;
+                }
+
+                String h = batch.get(i);
+                remaining.remove(h);
+                Object owner = t.getResult().getValue();
+                if (owner != null) {
+                    matches.put(h, String.valueOf(owner));
+                } else {
+                    misses.add(h);
+                }
+            }
+        }
+
+        /** Waits up to LOOKUP_TIMEOUT_S; a timeout only marks the round as failed. */
+        private void await(List<Task<DataSnapshot>> tasks) throws InterruptedException {
+            try {
+                Tasks.await(Tasks.whenAllComplete(tasks), LOOKUP_TIMEOUT_S, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                failed = true;
+            }
+        }
+    }
+
+    /** Streams numbers of contacts updated after sinceMs and hashes them in parallel chunks. */
+    private static Set<String> hashContacts(ContentResolver resolver, long sinceMs) throws Exception {
+        String[] projection = { ContactsContract.CommonDataKinds.Phone.NUMBER };
+        String selection = ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?";
+        String[] args = { String.valueOf(sinceMs) };
+
+        List<Future<List<String>>> futures = new ArrayList<>();
+
+        try (Cursor c = resolver.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+                projection, selection, args, null)) {
+            if (c == null) return new HashSet<>();
+
+            Set<String> seenRaw = new HashSet<>();
+            List<String> chunk = new ArrayList<>(HASH_CHUNK);
+
+            while (c.moveToNext()) {
+                String raw = c.getString(0);
+                if (raw == null || !seenRaw.add(raw)) continue;
+
+                chunk.add(raw);
+                if (chunk.size() == HASH_CHUNK) {
+                    futures.add(HASHERS.submit(hashChunk(chunk)));
+                    chunk = new ArrayList<>(HASH_CHUNK);
+                }
+            }
+            if (!chunk.isEmpty()) futures.add(HASHERS.submit(hashChunk(chunk)));
+        }
+
+        // Different spellings of one number collapse to one hash here
+        Set<String> hashes = new LinkedHashSet<>();
+        for (Future<List<String>> f : futures) hashes.addAll(f.get());
+        return hashes;
+    }
+
+    private static Callable<List<String>> hashChunk(List<String> raws) {
+        return () -> {
+            List<String> out = new ArrayList<>(raws.size());
+            for (String raw : raws) {
+                String canonical = IdentityKeys.canonicalPhone(raw);
+                if (canonical == null) continue;
+                out.add(IdentityKeys.sha256Hex(canonical));
+                out.addAll(IdentityKeys.legacyPhoneHashes(canonical));
+            }
+            return out;
+        };
+    }
+
+    private static Map<String, String> loadMatches(SharedPreferences sp, boolean full) {
+        Map<String, String> matches = new HashMap<>();
+        if (full) return matches;
+
+        for (Map.Entry<String, ?> e : sp.getAll().entrySet()) {
+            if (e.getKey().startsWith(MATCH_PREFIX) && e.getValue() instanceof String) {
+                matches.put(e.getKey().substring(MATCH_PREFIX.length()), (String) e.getValue());
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.duowalk.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * DayClock
+ *
+ * Shared source of the local "day" used for step keys ("yyyy-MM-dd").
+ *
+ * - The current day (key + local start/end in epoch ms) is computed once and cached.
+ * - "Is it still the same day?" is a long comparison against the cached bounds.
+ * - The cache is dropped when the clock, date or timezone changes (system broadcasts),
+ *   and naturally when the cached midnight is crossed.
+ *
+ * Thread-safe: the cached day is immutable and published through a volatile field.
+ */
+public final class DayClock {
+
+    private static final long DAY_MS = 24L * 60L * 60L * 1000L;
+
+    private static final DayClock INSTANCE = new DayClock();
+
+    /** One local calendar day. Immutable. */
+    public static final class Day {
+        /** "yyyy-MM-dd" in local time */
+        public final String key;
+        /** Local days since 1970-01-01 (stable id for arrays / journals) */
+        public final int index;
+        /** Local midnight that starts this day (inclusive) */
+        public final long startMs;
+        /** Next local midnight (exclusive) */
+        public final long endMs;
+
+        Day(String key, int index, long startMs, long endMs) {
+            this.key = key;
+            this.index = index;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        public boolean contains(long ms) {
+            return ms >= startMs && ms < endMs;
+        }
+    }
+
+    private volatile Day current;
+    private boolean receiverRegistered = false;
+
+    private DayClock() {}
+
+    public static DayClock get() {
+        return INSTANCE;
+    }
+
+    // =========================
+    // Queries
+    // =========================
+
+    /** The local day for "now". Recomputed only when the cached day no longer contains now. */
+    public Day today() {
+        long now = System.currentTimeMillis();
+        Day d = current;
+        if (d != null && d.contains(now)) return d;
+        return recompute(now);
+    }
+
+    /** @return Today's date key "yyyy-MM-dd" in the device local timezone. */
+    public String todayKey() {
+        return today().key;
+    }
+
+    /** The local day that contains ms (cached day if it matches, otherwise computed). */
+    public Day dayAt(long ms) {
+        Day d = current;
+        if (d != null && d.contains(ms)) return d;
+        return compute(ms);
+    }
+
+    /** Day index of a local calendar date (month is 1-12). Pure arithmetic, no timezone. */
+    public static int indexOf(int year, int month, int day) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.clear();
+        c.set(year, month - 1, day);
+        return (int) Math.floorDiv(c.getTimeInMillis(), DAY_MS);
+    }
+
+    /** "yyyy-MM-dd" of a day index (inverse of indexOf). */
+    public static String keyOf(int index) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(index * DAY_MS);
+        return formatKey(c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /** Number of days in a month (month is 1-12). */
+    public static int daysInMonth(int year, int month) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.clear();
+        c.set(year, month - 1, 1);
+        return c.getActualMaximum(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Index of the first day of the week containing dayIndex. Weeks start on Sunday for
+     * every user (not the device locale), so shared weekly keys line up across devices.
+     */
+    public static int weekStartIndex(int dayIndex) {
+        // 1970-01-01 (index 0) was a Thursday -> Sunday-based offset 4
+        return dayIndex - Math.floorMod(dayIndex + 4, 7);
+    }
+
+    /** Day index of a "yyyy-MM-dd" key (inverse of keyOf). */
+    public static int indexOfKey(String dateKey) {
+        return indexOf(Integer.parseInt(dateKey.substring(0, 4)),
+                Integer.parseInt(dateKey.substring(5, 7)),
+                Integer.parseInt(dateKey.substring(8, 10)));
+    }
+
+    /** "yyyy-MM-dd" of the Sunday starting the week of a "yyyy-MM-dd" key (weekly rollup key). */
+    public static String weekKeyOf(String dateKey) {
+        return keyOf(weekStartIndex(indexOfKey(dateKey)));
+    }
+
+    /**
+     * Converts SensorEvent.timestamp (elapsed-realtime nanos) to wall-clock ms.
+     * Falls back to "now" for devices that report a different time base.
+     */
+    public static long eventWallTimeMs(long eventTimestampNanos) {
+        long now = System.currentTimeMillis();
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - eventTimestampNanos) / 1_000_000L;
+        if (ageMs < 0 || ageMs > DAY_MS) return now;
+        return now - ageMs;
+    }
+
+    // =========================
+    // Invalidation
+    // =========================
+
+    /** Drops the cached day (clock / timezone changed). */
+    public void invalidate() {
+        current = null;
+    }
+
+    /**
+     * Listens for clock, date and timezone changes so the cached day is recomputed.
+     * Safe to call more than once; registers on the application context.
+     */
+    public synchronized void registerReceiver(Context context) {
+        if (receiverRegistered) return;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+
+        ContextCompat.registerReceiver(context.getApplicationContext(), new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                invalidate();
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        receiverRegistered = true;
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private synchronized Day recompute(long now) {
+        Day d = current;
+        if (d != null && d.contains(now)) return d; // another thread already did it
+
+        d = compute(now);
+        current = d;
+        return d;
+    }
+
+    private static Day compute(long ms) {
+        TimeZone tz = TimeZone.getDefault();
+        Calendar c = Calendar.getInstance(tz);
+        c.setTimeInMillis(ms);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+
+        int year = c.get(Calendar.YEAR);
+        int month = c.get(Calendar.MONTH) + 1;
+        int day = c.get(Calendar.DAY_OF_MONTH);
+        long start = c.getTimeInMillis();
+
+        c.add(Calendar.DAY_OF_MONTH, 1);
+        long end = c.getTimeInMillis();
+
+        int index = (int) Math.floorDiv(start + tz.getOffset(start), DAY_MS);
+
+        return new Day(formatKey(year, month, day), index, start, end);
+    }
+
+    private static String formatKey(int year, int month, int day) {
+        char[] out = new char[10];
+        out[0] = (char) ('0' + (year / 1000) % 10);
+        out[1] = (char) ('0' + (year / 100) % 10);
+        out[2] = (char) ('0' + (year / 10) % 10);
+        out[3] = (char) ('0' + year % 10);
+        out[4] = '-';
+        out[5] = (char) ('0' + month / 10);
+        out[6] = (char) ('0' + month % 10);
+        out[7] = '-';
+        out[8] = (char) ('0' + day / 10);
+        out[9] = (char) ('0' + day % 10);
+        return new String(out);
+    }
+}
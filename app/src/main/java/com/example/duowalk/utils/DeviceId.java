@@ -0,0 +1,42 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.UUID;
+
+/**
+ * DeviceId
+ *
+ * Random id of this app install, used as the device's own slot in the step counters:
+ *   /users/{uid}/steps/devices/{deviceId}
+ *
+ * Generated once and kept in "device_prefs" (a reinstall gets a new slot; the old
+ * slot keeps its counts, which is exactly what a grow-only counter needs).
+ */
+public final class DeviceId {
+
+    private static final String PREFS = "device_prefs";
+    private static final String K_DEVICE_ID = "device_id";
+
+    private static String cached;
+
+    private DeviceId() { }
+
+    public static synchronized String get(Context context) {
+        if (cached != null) return cached;
+
+        SharedPreferences sp = context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+
+        String id = sp.getString(K_DEVICE_ID, null);
+        if (id == null) {
+            // RTDB keys cannot contain '.', '#', '$', '[', ']' -> a plain UUID without dashes is safe
+            id = UUID.randomUUID().toString().replace("-", "");
+            sp.edit().putString(K_DEVICE_ID, id).apply();
+        }
+
+        cached = id;
+        return id;
+    }
+}
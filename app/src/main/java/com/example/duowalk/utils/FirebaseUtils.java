@@ -5,20 +5,18 @@ import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.storage.FirebaseStorage;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
 
 /**
  * FirebaseUtils
@@ -32,6 +30,9 @@ import java.util.TimeZone;
  * Includes convenience helpers for:
  * - /users (private)
  * - /public_profiles (public)
+ * - /leaderboard_entries (public, denormalized for leaderboards)
+ * - /step_history (per-user daily history, partitioned by year/month)
+ * - /friends/{uid}/{friendUid} (friend lists)
  * - /tasks
  * - username + phone uniqueness indexes
  * - step tracking (daily + all-time)
@@ -55,6 +56,9 @@ public class FirebaseUtils {
     public static DatabaseReference tasksRef          = rtDb.getReference("tasks");
     public static DatabaseReference usernamesRef      = rtDb.getReference("usernames");
     public static DatabaseReference phoneIndexRef     = rtDb.getReference("phone_index");
+    public static DatabaseReference leaderboardEntriesRef = rtDb.getReference("leaderboard_entries");
+    public static DatabaseReference stepHistoryRef    = rtDb.getReference("step_history");
+    public static DatabaseReference friendsRef        = rtDb.getReference("friends");
 
     // =========================================================
     // AUTH HELPERS
@@ -71,12 +75,10 @@ public class FirebaseUtils {
 
     /**
      * @return Today's date key "yyyy-MM-dd" in the device local timezone.
-     * Used for: /users/{uid}/steps/today/{dateKey}
+     * Used for: /step_history/{uid}/{yyyy}/{MM}/{dd}
      */
     public static String todayKey() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-        sdf.setTimeZone(TimeZone.getDefault());
-        return sdf.format(new Date());
+        return DayClock.get().todayKey();
     }
 
     // =========================================================
@@ -189,6 +191,176 @@ public class FirebaseUtils {
         deleteAt(publicProfilesRef, uid, listener);
     }
 
+    // =========================================================
+    // PROFILE CLAIM (username + phone uniqueness)
+    // =========================================================
+    //
+    // ONE root-level multi-path update reserves both index keys and writes the profile fields:
+    //   /usernames/{usernameKey} = uid
+    //   /phone_index/{phoneHash} = uid
+    //   /users/{uid}/username, phoneNum, usernameKey, phoneHash
+    //   /public_profiles/{uid}/username, /leaderboard_entries/{uid}/username
+    //   (+ old keys removed when they changed)
+    //   /phone_index/{legacy hashes of the same number} = null
+    //
+    // database.rules.json only accepts it if both keys are free or already ours AND match the
+    // usernameKey / phoneHash written to /users/{uid} in the same update. So it either all
+    // lands or nothing does: no rollbacks, no orphaned claims.
+    //
+    // Accounts created before canonicalization are indexed under a legacy hash of what they
+    // typed (IdentityKeys.legacyPhoneHashes). Deleting a phone_index key is only allowed while
+    // it is free or ours, so the null writes above reject a number someone else still holds
+    // under an old key, and re-key our own old entries in the same write.
+
+    public enum ClaimResult { CLAIMED, USERNAME_TAKEN, PHONE_TAKEN, FAILED }
+
+    public interface ClaimCallback {
+        /** @param errorMessage only set for FAILED */
+        void onResult(ClaimResult result, String errorMessage);
+    }
+
+    /**
+     * Claims username + phone and writes the profile fields in one round trip.
+     *
+     * @param oldUsernameKey current key to release if it changes (null on first setup)
+     * @param oldPhoneHash   current hash to release if it changes (null on first setup)
+     * @param extraUpdates   more root-relative paths to write in the same update (may be null)
+     */
+    public static void claimProfile(
+            String uid,
+            String usernameDisplay,
+            String usernameKey,
+            String phoneNormalized,
+            String phoneHash,
+            String oldUsernameKey,
+            String oldPhoneHash,
+            Map<String, Object> extraUpdates,
+            ClaimCallback callback
+    ) {
+        Map<String, Object> updates = new HashMap<>();
+        if (extraUpdates != null) updates.putAll(extraUpdates);
+
+        updates.put("usernames/" + usernameKey, uid);
+        updates.put("phone_index/" + phoneHash, uid);
+
+        String user = "users/" + uid + "/";
+        updates.put(user + "username", usernameDisplay);
+        updates.put(user + "phoneNum", phoneNormalized);
+        updates.put(user + "usernameKey", usernameKey);
+        updates.put(user + "phoneHash", phoneHash);
+
+        updates.put("public_profiles/" + uid + "/username", usernameDisplay);
+        updates.put("leaderboard_entries/" + uid + "/username", usernameDisplay);
+
+        if (oldUsernameKey != null && !oldUsernameKey.isEmpty() && !oldUsernameKey.equals(usernameKey)) {
+            updates.put("usernames/" + oldUsernameKey, null);
+        }
+        if (oldPhoneHash != null && !oldPhoneHash.isEmpty() && !oldPhoneHash.equals(phoneHash)) {
+            updates.put("phone_index/" + oldPhoneHash, null);
+        }
+
+        List<String> phoneHashes = new ArrayList<>();
+        phoneHashes.add(phoneHash);
+        for (String legacy : IdentityKeys.legacyPhoneHashes(phoneNormalized)) {
+            if (phoneHashes.contains(legacy)) continue;
+            phoneHashes.add(legacy);
+            updates.put("phone_index/" + legacy, null);
+        }
+
+        rtDb.getReference().updateChildren(updates, (error, ref) -> {
+            if (error == null) {
+                callback.onResult(ClaimResult.CLAIMED, null);
+            } else if (error.getCode() == DatabaseError.PERMISSION_DENIED) {
+                // Rejected by the rules -> find out which key belongs to someone else
+                explainClaimConflict(uid, usernameKey, phoneHashes, callback);
+            } else {
+                callback.onResult(ClaimResult.FAILED, error.getMessage());
+            }
+        });
+    }
+
+    /** Only runs on the rejected path: reads the username entry and the phone's entries. */
+    private static void explainClaimConflict(String uid, String usernameKey, List<String> phoneHashes,
+                                             ClaimCallback callback) {
+        List<Task<DataSnapshot>> reads = new ArrayList<>(1 + phoneHashes.size());
+        reads.add(usernamesRef.child(usernameKey).get());
+        for (String h : phoneHashes) reads.add(phoneIndexRef.child(h).get());
+
+        Tasks.whenAllSuccess(reads)
+                .addOnSuccessListener(results -> {
+                    Object usernameOwner = ((DataSnapshot) results.get(0)).getValue();
+                    if (usernameOwner != null && !uid.equals(String.valueOf(usernameOwner))) {
+                        callback.onResult(ClaimResult.USERNAME_TAKEN, null);
+                        return;
+                    }
+                    for (int i = 1; i < results.size(); i++) {
+                        Object phoneOwner = ((DataSnapshot) results.get(i)).getValue();
+                        if (phoneOwner != null && !uid.equals(String.valueOf(phoneOwner))) {
+                            callback.onResult(ClaimResult.PHONE_TAKEN, null);
+                            return;
+                        }
+                    }
+                    callback.onResult(ClaimResult.FAILED, "Permission denied");
+                })
+                .addOnFailureListener(e -> callback.onResult(ClaimResult.FAILED, e.getMessage()));
+    }
+
+    /**
+     * Re-keys an account still indexed under a legacy phone hash to the canonical one
+     * (same rules as claimProfile: new key claimed, old keys released, one write).
+     * Two leaf reads, and nothing is written once the stored hash is canonical.
+     * Called on every sign-in; a rejected or failed write is simply retried next time.
+     */
+    public static void rekeyLegacyPhone(String uid) {
+        DatabaseReference userRef = usersRef.child(uid);
+        Tasks.whenAllSuccess(userRef.child("phoneHash").get(), userRef.child("phoneNum").get())
+                .addOnSuccessListener(results -> {
+                    String storedHash = ((DataSnapshot) results.get(0)).getValue(String.class);
+                    String phoneNum = ((DataSnapshot) results.get(1)).getValue(String.class);
+
+                    String canonical = IdentityKeys.canonicalPhone(phoneNum);
+                    if (canonical == null) return; // no profile yet, or only a profile save can fix it
+                    String phoneHash = IdentityKeys.sha256Hex(canonical);
+                    if (phoneHash.equals(storedHash)) return;
+
+                    Map<String, Object> updates = new HashMap<>();
+                    updates.put("phone_index/" + phoneHash, uid);
+                    updates.put("users/" + uid + "/phoneHash", phoneHash);
+                    updates.put("users/" + uid + "/phoneNum", canonical);
+
+                    List<String> old = new ArrayList<>(IdentityKeys.legacyPhoneHashes(canonical));
+                    old.add(IdentityKeys.legacyPhoneHash(phoneNum));
+                    old.add(storedHash);
+                    for (String h : old) {
+                        if (h != null && !h.isEmpty() && !h.equals(phoneHash)) {
+                            updates.put("phone_index/" + h, null);
+                        }
+                    }
+
+                    rtDb.getReference().updateChildren(updates);
+                });
+    }
+
+    // =========================================================
+    // FRIENDS: /friends/{uid}/{friendUid} = true
+    // =========================================================
+
+    public static void addFriend(
+            String uid,
+            String friendUid,
+            DatabaseReference.CompletionListener listener
+    ) {
+        friendsRef.child(uid).child(friendUid).setValue(true, listener);
+    }
+
+    public static void removeFriend(
+            String uid,
+            String friendUid,
+            DatabaseReference.CompletionListener listener
+    ) {
+        friendsRef.child(uid).child(friendUid).removeValue(listener);
+    }
+
     // =========================================================
     // TASKS: /tasks
     // =========================================================
@@ -216,90 +388,461 @@ public class FirebaseUtils {
     }
 
     // =========================================================
-    // STEPS HELPERS (daily + all-time)
+    // STEPS HELPERS (daily + all-time, per-device G-counter)
     // =========================================================
     //
-    // /users/{uid}/steps/
-    //    allTime: long
+    // /users/{uid}/steps/                       (small, bounded by the number of devices)
     //    lastSync: timestamp
-    //    today/{yyyy-MM-dd}: int
+    //    devices/{deviceId}/allTime: long      (this device's lifetime count)
+    //    devices/{deviceId}/date, today        (this device's current day)
+    //    devices/{deviceId}/lastSync: timestamp
+    //
+    // /step_history/{uid}/{yyyy}/{MM}/{dd}/{deviceId}: int   (this device's count for that day)
+    // /step_history/{uid}/{yyyy}/{MM}/packed/{deviceId}: str (completed month, see PackedMonth)
+    // /step_history/{uid}/{yyyy}/rollup/{MM}, rollup/total   (beyond retention, see StepHistoryCompactor)
+    // /step_history/{uid}/{yyyy}/{MM}/total/{deviceId}: long          (this device's month total)
+    // /step_history/{uid}/{yyyy}/weeks/{yyyy-MM-dd}/{deviceId}: long  (this device's week total, key = its Sunday)
+    //
+    // History lives outside /users so profile reads stay the same size however long the
+    // account has existed, and a month / year of history is one subtree read.
+    //
+    // Every device only ever writes its own slots, and each slot only grows, so writes
+    // are blind (no transactions) and never overwrite another phone's steps.
+    // The account total is the SUM of the slots -> see peerTotals / mergedDaySteps.
+    //
+    // Week / month totals are kept up to date by the same writes: each device writes the
+    // sum of its own days as an absolute value (like the day slots), so a write repeated
+    // after a lost callback is harmless. The account total is the sum over the devices of
+    // one small node (mergedDaySteps), without anyone reading the days back.
 
-    public static void saveSteps(String uid, String dateKey, int todaySteps, long allTimeSteps) {
-        if (uid == null || dateKey == null) return;
+    //
+    // Public copies (account totals = sum over devices), written in the SAME update:
+    // /public_profiles/{uid}/steps, stepsDate, allTimeSteps
+    // /leaderboard_entries/{uid}/today, date, allTime, updatedAt   (username set by profile screens)
+    // /leaderboard_entries/{uid}/weekSteps/{week key}/{deviceId}, monthSteps/{yyyy-MM}/{deviceId}
+    //   (current period only)
+
+    /** Account-wide step totals for one day + all-time. */
+    public static class StepTotals {
+        public final String date;
+        public final long today;
+        public final long allTime;
+
+        public StepTotals(String date, long today, long allTime) {
+            this.date = date;
+            this.today = today;
+            this.allTime = allTime;
+        }
+    }
 
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("steps/today/" + dateKey, todaySteps);
-        updates.put("steps/allTime", allTimeSteps);
-        updates.put("steps/lastSync", System.currentTimeMillis());
+    public static void saveSteps(String uid, String deviceId, String dateKey, int todaySteps, long allTimeSteps) {
+        if (dateKey == null) return;
 
-        usersRef.child(uid).updateChildren(updates);
+        Map<String, Integer> days = new HashMap<>();
+        days.put(dateKey, todaySteps);
+        saveStepsBatch(uid, deviceId, days, null, null, allTimeSteps, null, null);
     }
 
-    public static void saveTodaySteps(String uid, String dateKey, int todaySteps) {
-        if (uid == null || dateKey == null) return;
+    /**
+     * Writes several days (+ optionally all-time) of this device's slot in ONE root-level
+     * multi-path update, together with the public profile + leaderboard copies.
+     * Used by StepSyncOutbox to backfill days missed while offline.
+     *
+     * @param weekTotals   this device's total per week key (DayClock.weekKeyOf) for the weeks
+     *                     of the written days, or null to leave the week totals untouched
+     * @param monthTotals  this device's total per "yyyy-MM", same rules as weekTotals
+     * @param allTimeSteps this device's all-time total, or -1 to leave it unchanged
+     * @param publicTotals account totals to fan out, or null to only write the private slot
+     */
+    public static void saveStepsBatch(
+            String uid,
+            String deviceId,
+            Map<String, Integer> days,
+            Map<String, Long> weekTotals,
+            Map<String, Long> monthTotals,
+            long allTimeSteps,
+            StepTotals publicTotals,
+            DatabaseReference.CompletionListener listener
+    ) {
+        if (uid == null || deviceId == null) return;
+
+        long now = System.currentTimeMillis();
+        String steps = "users/" + uid + "/steps/";
+        String device = steps + "devices/" + deviceId + "/";
 
         Map<String, Object> updates = new HashMap<>();
-        updates.put("steps/today/" + dateKey, todaySteps);
-        updates.put("steps/lastSync", System.currentTimeMillis());
+        String latestDate = null;
+        for (Map.Entry<String, Integer> e : days.entrySet()) {
+            String dayPath = historyDayPath(uid, e.getKey());
+            if (dayPath == null) continue;
+            updates.put(dayPath + "/" + deviceId, e.getValue());
+            if (latestDate == null || e.getKey().compareTo(latestDate) > 0) latestDate = e.getKey();
+        }
+        // The device node also carries its current day, so peers can merge from this small node alone
+        if (latestDate != null) {
+            updates.put(device + "date", latestDate);
+            updates.put(device + "today", days.get(latestDate));
+        }
+        if (allTimeSteps >= 0L) updates.put(device + "allTime", allTimeSteps);
+        updates.put(device + "lastSync", now);
+        putPeriodTotals(updates, uid, deviceId, weekTotals, monthTotals, publicTotals);
+        updates.put(steps + "lastSync", now);
+
+        if (publicTotals != null) {
+            String profile = "public_profiles/" + uid + "/";
+            updates.put(profile + "steps", publicTotals.today);
+            updates.put(profile + "stepsDate", publicTotals.date);
+            updates.put(profile + "allTimeSteps", publicTotals.allTime);
+
+            String entry = "leaderboard_entries/" + uid + "/";
+            updates.put(entry + "today", publicTotals.today);
+            updates.put(entry + "date", publicTotals.date);
+            updates.put(entry + "allTime", publicTotals.allTime);
+            updates.put(entry + "updatedAt", now);
+        }
 
-        usersRef.child(uid).updateChildren(updates);
+        rtDb.getReference().updateChildren(updates, listener);
     }
 
-    public static void saveAllTimeSteps(String uid, long allTimeSteps) {
-        if (uid == null) return;
+    /**
+     * Writes this device's week / month totals next to the daily values, and to the public
+     * copies of the CURRENT week / month (the previous period's copy is removed).
+     */
+    private static void putPeriodTotals(Map<String, Object> updates, String uid, String deviceId,
+                                        Map<String, Long> weekTotals, Map<String, Long> monthTotals,
+                                        StepTotals publicTotals) {
+        String curWeek = null;
+        String curMonth = null;
+        String entry = "leaderboard_entries/" + uid + "/";
+        if (publicTotals != null && publicTotals.date != null && publicTotals.date.length() == 10) {
+            curWeek = DayClock.weekKeyOf(publicTotals.date);
+            curMonth = publicTotals.date.substring(0, 7);
+
+            updates.put(entry + "weekSteps/" + DayClock.keyOf(DayClock.indexOfKey(curWeek) - 7), null);
+            updates.put(entry + "monthSteps/" + previousMonthKey(curMonth), null);
+        }
 
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("steps/allTime", allTimeSteps);
-        updates.put("steps/lastSync", System.currentTimeMillis());
+        if (weekTotals != null) {
+            for (Map.Entry<String, Long> e : weekTotals.entrySet()) {
+                String week = e.getKey();
+                updates.put(historyWeekPath(uid, week) + "/" + deviceId, e.getValue());
+                if (week.equals(curWeek)) updates.put(entry + "weekSteps/" + week + "/" + deviceId, e.getValue());
+            }
+        }
+        if (monthTotals != null) {
+            for (Map.Entry<String, Long> e : monthTotals.entrySet()) {
+                String month = e.getKey();
+                updates.put(historyMonthPath(uid, month.substring(0, 4), month.substring(5, 7))
+                        + "/total/" + deviceId, e.getValue());
+                if (month.equals(curMonth)) updates.put(entry + "monthSteps/" + month + "/" + deviceId, e.getValue());
+            }
+        }
+    }
 
-        usersRef.child(uid).updateChildren(updates);
+    private static String previousMonthKey(String yyyyMM) {
+        int y = Integer.parseInt(yyyyMM.substring(0, 4));
+        int m = Integer.parseInt(yyyyMM.substring(5, 7)) - 1;
+        if (m == 0) {
+            m = 12;
+            y--;
+        }
+        return y + "-" + (m < 10 ? "0" + m : String.valueOf(m));
+    }
+
+    /**
+     * Sums the OTHER devices of the account from a /users/{uid}/steps/devices snapshot.
+     * Only peers on the latest date contribute to "today".
+     */
+    public static StepTotals peerTotals(DataSnapshot devicesSnap, String ownDeviceId) {
+        String date = null;
+        long today = 0L;
+        long allTime = 0L;
+
+        for (DataSnapshot device : devicesSnap.getChildren()) {
+            if (device.getKey() == null || device.getKey().equals(ownDeviceId)) continue;
+
+            Long a = device.child("allTime").getValue(Long.class);
+            if (a != null) allTime += a;
+
+            String d = device.child("date").getValue(String.class);
+            Long t = device.child("today").getValue(Long.class);
+            if (d == null || t == null) continue;
+
+            int cmp = (date == null) ? 1 : d.compareTo(date);
+            if (cmp > 0) {
+                date = d;
+                today = t;
+            } else if (cmp == 0) {
+                today += t;
+            }
+        }
+        return new StepTotals(date, today, allTime);
+    }
+
+    public static void saveTodaySteps(String uid, String deviceId, String dateKey, int todaySteps) {
+        saveSteps(uid, deviceId, dateKey, todaySteps, -1L);
+    }
+
+    public static void saveAllTimeSteps(String uid, String deviceId, long allTimeSteps) {
+        saveStepsBatch(uid, deviceId, new HashMap<>(), null, null, allTimeSteps, null, null);
+    }
+
+    /**
+     * "step_history/{uid}/{yyyy}/{MM}/{dd}" for a "yyyy-MM-dd" key, or null if the key is malformed.
+     */
+    public static String historyDayPath(String uid, String dateKey) {
+        if (dateKey == null || dateKey.length() != 10) return null;
+        return historyMonthPath(uid, dateKey.substring(0, 4), dateKey.substring(5, 7))
+                + "/" + dateKey.substring(8, 10);
+    }
+
+    /** "step_history/{uid}/{yyyy}/{MM}" */
+    public static String historyMonthPath(String uid, String year, String month) {
+        return "step_history/" + uid + "/" + year + "/" + month;
+    }
+
+    /** "step_history/{uid}/{yyyy}/weeks/{weekKey}": per-device steps of the week starting weekKey. */
+    public static String historyWeekPath(String uid, String weekKey) {
+        return "step_history/" + uid + "/" + weekKey.substring(0, 4) + "/weeks/" + weekKey;
+    }
+
+    /**
+     * Account total for one day from a /step_history/{uid}/{yyyy}/{MM}/{dd} snapshot
+     * (or a legacy /users/{uid}/steps/today/{date} one). Week / month total nodes have the
+     * same per-device shape and are summed the same way.
+     * Handles both the per-device map and the old single int value.
+     */
+    public static long mergedDaySteps(DataSnapshot daySnap) {
+        Object raw = daySnap.getValue();
+        if (raw instanceof Number) return ((Number) raw).longValue();
+
+        long sum = 0L;
+        for (DataSnapshot device : daySnap.getChildren()) {
+            Long v = device.getValue(Long.class);
+            if (v != null) sum += v;
+        }
+        return sum;
+    }
+
+    /**
+     * Account daily totals for one month from a /step_history/{uid}/{yyyy}/{MM} snapshot.
+     * Sealed devices contribute their packed value; the others their live day children.
+     *
+     * @return totals[d - 1] = steps on day d
+     */
+    public static long[] mergedMonthDays(DataSnapshot monthSnap, int daysInMonth) {
+        long[] totals = new long[daysInMonth];
+
+        DataSnapshot packed = monthSnap.child("packed");
+        for (DataSnapshot device : packed.getChildren()) {
+            int[] days = PackedMonth.decode(device.getValue(String.class));
+            for (int d = 0; d < days.length && d < daysInMonth; d++) totals[d] += days[d];
+        }
+
+        for (DataSnapshot day : monthSnap.getChildren()) {
+            String key = day.getKey();
+            if (key == null || "packed".equals(key)) continue;
+
+            int d;
+            try {
+                d = Integer.parseInt(key);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (d < 1 || d > daysInMonth) continue;
+
+            for (DataSnapshot device : day.getChildren()) {
+                if (packed.hasChild(device.getKey())) continue; // already counted in its packed month
+                Long v = device.getValue(Long.class);
+                if (v != null) totals[d - 1] += v;
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Account month totals from a /step_history/{uid}/{yyyy} snapshot (rolled-up and live months).
+     *
+     * @return totals[m] = steps in month m (1-12), totals[0] = whole year
+     */
+    public static long[] mergedYearTotals(DataSnapshot yearSnap, int year) {
+        long[] totals = new long[13];
+
+        DataSnapshot rollup = yearSnap.child("rollup");
+        for (int m = 1; m <= 12; m++) {
+            String mm = (m < 10) ? "0" + m : String.valueOf(m);
+
+            Long rolled = rollup.child(mm).getValue(Long.class);
+            if (rolled != null) totals[m] += rolled;
+
+            DataSnapshot monthSnap = yearSnap.child(mm);
+            if (monthSnap.exists()) {
+                for (long v : mergedMonthDays(monthSnap, DayClock.daysInMonth(year, m))) totals[m] += v;
+            }
+            totals[0] += totals[m];
+        }
+        return totals;
     }
 
     // =========================================================
     // ACCOUNT DELETE HELPERS
     // =========================================================
 
+    // Oldest year step history can exist in (used when the account creation time is unknown)
+    private static final int FIRST_HISTORY_YEAR = 2024;
+    // Legacy /users/{uid}/steps/today keys removed per update
+    private static final int DELETE_PAGE = 500;
+
     /**
      * Deletes ALL RTDB data for the user:
-     *  - /users/{uid}               (includes steps)
+     *  - /users/{uid}               (includes step counters)
+     *  - /step_history/{uid}
      *  - /public_profiles/{uid}
+     *  - /leaderboard_entries/{uid}
+     *  - /leaderboards/{board}/{current period}/{uid}
+     *  - /friends/{uid}
      *  - /usernames/{usernameKey}
      *  - /phone_index/{phoneHash}
      *
-     * Reads /users/{uid} first to compute usernameKey and phoneHash.
+     * Reads only the index leaves (usernameKey, phoneHash; username / phoneNum as fallback
+     * for older accounts), never the whole /users/{uid} subtree. Large step trees are
+     * removed in bounded pieces first (one history year per update, legacy days in pages),
+     * so the time this takes does not depend on how old the account is.
      */
     public static Task<Void> deleteAccountRtdb(String uid) {
-        return usersRef.child(uid).get().continueWithTask(task -> {
+        FirebaseUser user = authFB.getCurrentUser();
+        long createdMs = (user != null && uid.equals(user.getUid()) && user.getMetadata() != null)
+                ? user.getMetadata().getCreationTimestamp()
+                : 0L;
+        return deleteAccountRtdb(uid, createdMs);
+    }
+
+    /** @param accountCreatedMs account creation time (0 = unknown), bounds the history years */
+    public static Task<Void> deleteAccountRtdb(String uid, long accountCreatedMs) {
+        DatabaseReference userRef = usersRef.child(uid);
+
+        Task<List<Object>> leaves = Tasks.whenAllSuccess(
+                userRef.child("usernameKey").get(),
+                userRef.child("phoneHash").get(),
+                userRef.child("username").get(),
+                userRef.child("phoneNum").get());
+
+        return leaves.continueWithTask(task -> {
             if (!task.isSuccessful() || task.getResult() == null) {
                 Exception e = task.getException();
                 throw (e != null) ? e : new Exception("Failed to read user data for delete");
             }
 
-            DataSnapshot snap = task.getResult();
-
-            String username = snap.child("username").getValue(String.class);
-            String phoneNum = snap.child("phoneNum").getValue(String.class);
+            List<Object> r = task.getResult();
+            String usernameKey = ((DataSnapshot) r.get(0)).getValue(String.class);
+            String phoneHash = ((DataSnapshot) r.get(1)).getValue(String.class);
 
-            String usernameKey = (username != null) ? normalizeUsernameKeyStatic(username) : null;
+            if (usernameKey == null || usernameKey.isEmpty()) {
+                String username = ((DataSnapshot) r.get(2)).getValue(String.class);
+                usernameKey = (username != null) ? IdentityKeys.usernameKey(username) : null;
+            }
+            if (phoneHash == null || phoneHash.isEmpty()) {
+                String phoneNum = ((DataSnapshot) r.get(3)).getValue(String.class);
+                // Accounts without a stored hash were indexed with the old normalization
+                phoneHash = IdentityKeys.legacyPhoneHash(phoneNum);
+            }
 
-            String phoneNormalized = (phoneNum != null) ? normalizePhoneStatic(phoneNum) : null;
-            String phoneHash = (phoneNormalized != null && !phoneNormalized.isEmpty())
-                    ? sha256HexStatic(phoneNormalized)
-                    : null;
+            final String finalUsernameKey = usernameKey;
+            final String finalPhoneHash = phoneHash;
+
+            return deleteHistoryYears(uid, accountCreatedMs)
+                    .continueWithTask(t -> {
+                        if (!t.isSuccessful()) return t;
+                        return deleteLegacyDays(uid);
+                    })
+                    .continueWithTask(t -> {
+                        if (!t.isSuccessful()) return t;
+
+                        Map<String, Object> updates = new HashMap<>();
+                        updates.put("users/" + uid, null);
+                        updates.put("public_profiles/" + uid, null);
+                        updates.put("leaderboard_entries/" + uid, null);
+                        updates.put("step_history/" + uid, null);
+                        updates.put("friends/" + uid, null);
+
+                        // Current top-N boards (older periods are no longer shown)
+                        DayClock.Day today = DayClock.get().today();
+                        for (String board : new String[] { TopLeaderboards.BOARD_DAILY,
+                                TopLeaderboards.BOARD_WEEKLY, TopLeaderboards.BOARD_ALL_TIME }) {
+                            updates.put("leaderboards/" + board + "/"
+                                    + TopLeaderboards.periodOf(board, today) + "/" + uid, null);
+                        }
+
+                        if (finalUsernameKey != null && !finalUsernameKey.isEmpty()) {
+                            updates.put("usernames/" + finalUsernameKey, null);
+                        }
+
+                        if (finalPhoneHash != null && !finalPhoneHash.isEmpty()) {
+                            updates.put("phone_index/" + finalPhoneHash, null);
+                        }
+
+                        return rtDb.getReference().updateChildren(updates);
+                    });
+        });
+    }
 
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("users/" + uid, null);
-            updates.put("public_profiles/" + uid, null);
+    /**
+     * Removes /step_history/{uid}/{yyyy} one year at a time, in bounded pieces:
+     * - each month {MM} separately (at most 31 days x devices, or its packed strings)
+     * - then the year's weeks and what is left of the year node (rollup)
+     * An unsealed year can hold a whole year of per-device days, too much for one delete.
+     */
+    private static Task<Void> deleteHistoryYears(String uid, long accountCreatedMs) {
+        int thisYear = Calendar.getInstance().get(Calendar.YEAR);
+        int firstYear = FIRST_HISTORY_YEAR;
+        if (accountCreatedMs > 0L) {
+            Calendar c = Calendar.getInstance();
+            c.setTimeInMillis(accountCreatedMs);
+            firstYear = c.get(Calendar.YEAR);
+        }
 
-            if (usernameKey != null && !usernameKey.isEmpty()) {
-                updates.put("usernames/" + usernameKey, null);
+        Task<Void> chain = Tasks.forResult(null);
+        for (int y = firstYear; y <= thisYear; y++) {
+            final DatabaseReference yearRef = stepHistoryRef.child(uid).child(String.valueOf(y));
+            for (int m = 1; m <= 12; m++) {
+                final DatabaseReference monthRef = yearRef.child((m < 10) ? "0" + m : String.valueOf(m));
+                chain = chain.continueWithTask(t -> {
+                    if (!t.isSuccessful()) return t;
+                    return monthRef.removeValue();
+                });
             }
+            chain = chain.continueWithTask(t -> {
+                if (!t.isSuccessful()) return t;
+                return yearRef.child("weeks").removeValue();
+            });
+            chain = chain.continueWithTask(t -> {
+                if (!t.isSuccessful()) return t;
+                return yearRef.removeValue();
+            });
+        }
+        return chain;
+    }
 
-            if (phoneHash != null && !phoneHash.isEmpty()) {
-                updates.put("phone_index/" + phoneHash, null);
+    /** Removes the legacy flat /users/{uid}/steps/today map in pages of DELETE_PAGE keys. */
+    private static Task<Void> deleteLegacyDays(String uid) {
+        DatabaseReference legacy = usersRef.child(uid).child("steps").child("today");
+
+        return legacy.orderByKey().limitToFirst(DELETE_PAGE).get().continueWithTask(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Exception e = task.getException();
+                throw (e != null) ? e : new Exception("Failed to read step history for delete");
             }
 
-            return rtDb.getReference().updateChildren(updates);
+            DataSnapshot page = task.getResult();
+            if (!page.hasChildren()) return Tasks.forResult(null);
+
+            Map<String, Object> updates = new HashMap<>();
+            for (DataSnapshot day : page.getChildren()) updates.put(day.getKey(), null);
+
+            return legacy.updateChildren(updates).continueWithTask(t -> {
+                if (!t.isSuccessful()) return t;
+                return deleteLegacyDays(uid);
+            });
         });
     }
 
@@ -316,7 +859,9 @@ public class FirebaseUtils {
             return Tasks.forException(new IllegalArgumentException("Missing uid or user"));
         }
 
-        return deleteAccountRtdb(uid)
+        long createdMs = (user.getMetadata() != null) ? user.getMetadata().getCreationTimestamp() : 0L;
+
+        return deleteAccountRtdb(uid, createdMs)
                 .continueWithTask(t -> {
                     if (!t.isSuccessful()) {
                         Exception e = t.getException();
@@ -333,28 +878,4 @@ public class FirebaseUtils {
                     return Tasks.forResult(null);
                 });
     }
-
-    // =========================================================
-    // INTERNAL HELPERS (used by delete + indexes)
-    // =========================================================
-
-    private static String normalizeUsernameKeyStatic(String username) {
-        return username.trim().toLowerCase();
-    }
-
-    private static String normalizePhoneStatic(String raw) {
-        return raw.trim().replaceAll("[\\s-()]", "");
-    }
-
-    private static String sha256HexStatic(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            return String.valueOf(input.hashCode());
-        }
-    }
 }
@@ -0,0 +1,230 @@
+package com.example.duowalk.utils;
+
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * FriendsRanking
+ *
+ * Live "me vs my friends" ranking of today's steps.
+ *
+ * - Members: the user + /friends/{uid} (child listener, so added / removed friends show up).
+ * - Each member's /leaderboard_entries/{uid} comes from LeaderboardEntryPool (one shared
+ *   listener per user, however many screens watch it).
+ * - Ranking is a TreeSet ordered by steps (+ uid as tie-break) with a uid -> node map:
+ *   an incoming change is one remove + one insert, O(log k), never a full re-sort.
+ * - Like LiveTopBoard, changes within one frame cause ONE publish (an in-order walk).
+ * - Only members ranked within WINDOW_MARGIN rows of the visible range stay subscribed.
+ *   The others keep their last value (and place) until they are scrolled near again.
+ *   Members without a value yet stay subscribed until their first one arrives.
+ *
+ * Main thread only.
+ */
+public class FriendsRanking implements LeaderboardEntryPool.Observer {
+
+    public static final int WINDOW_MARGIN = 30;
+
+    public interface Listener {
+        void onRanked(List<LiveTopBoard.Row> rows);
+        void onError(DatabaseError error);
+    }
+
+    private static final class Ranked {
+        final String uid;
+        final String username;
+        final long steps;
+
+        Ranked(String uid, String username, long steps) {
+            this.uid = uid;
+            this.username = username;
+            this.steps = steps;
+        }
+    }
+
+    private static final Comparator<Ranked> ORDER = (a, b) -> {
+        int c = Long.compare(b.steps, a.steps);
+        return (c != 0) ? c : a.uid.compareTo(b.uid);
+    };
+
+    private final String ownUid;
+    private final Listener listener;
+    private final DatabaseReference friendsOfMe;
+
+    private final Set<String> members = new HashSet<>();
+    private final Set<String> subscribed = new HashSet<>();
+    private final TreeSet<Ranked> order = new TreeSet<>(ORDER);
+    private final Map<String, Ranked> byUid = new HashMap<>();
+
+    private int firstVisible = 0;
+    private int lastVisible = LiveTopBoard.PAGE_SIZE;
+    private boolean started = false;
+    private boolean frameScheduled = false;
+
+    private final Choreographer.FrameCallback frame = frameTimeNanos -> {
+        frameScheduled = false;
+        publish();
+    };
+
+    private final ChildEventListener friendsListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            addMember(snapshot.getKey());
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) { }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+            removeMember(snapshot.getKey());
+        }
+
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) { }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            listener.onError(error);
+        }
+    };
+
+    public FriendsRanking(String ownUid, Listener listener) {
+        this.ownUid = ownUid;
+        this.listener = listener;
+        this.friendsOfMe = FirebaseUtils.friendsRef.child(ownUid);
+    }
+
+    public void start() {
+        if (started) return;
+        started = true;
+        addMember(ownUid);
+        friendsOfMe.addChildEventListener(friendsListener);
+    }
+
+    public void stop() {
+        if (!started) return;
+        started = false;
+        friendsOfMe.removeEventListener(friendsListener);
+        for (String uid : subscribed) LeaderboardEntryPool.release(uid, this);
+        subscribed.clear();
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frame);
+            frameScheduled = false;
+        }
+    }
+
+    /** Adapter positions currently on screen; members far outside are unsubscribed. */
+    public void setVisibleRange(int first, int last) {
+        if (first < 0 || last < first) return;
+        if (first == firstVisible && last == lastVisible) return;
+        firstVisible = first;
+        lastVisible = last;
+        updateSubscriptions();
+    }
+
+    // =========================
+    // Entry updates
+    // =========================
+
+    @Override
+    public void onEntry(String uid, DataSnapshot entry) {
+        if (!members.contains(uid)) return;
+
+        String name = entry.child("username").getValue(String.class);
+        String date = entry.child("date").getValue(String.class);
+        Object today = entry.child("today").getValue();
+        long steps = (today instanceof Number && DayClock.get().todayKey().equals(date))
+                ? ((Number) today).longValue()
+                : 0L;
+
+        Ranked old = byUid.get(uid);
+        String username = (name != null) ? name : (old != null ? old.username : "?");
+        if (old != null && old.steps == steps && old.username.equals(username)) return;
+
+        // O(log k): move one node instead of re-sorting everyone
+        if (old != null) order.remove(old);
+        Ranked now = new Ranked(uid, username, steps);
+        order.add(now);
+        byUid.put(uid, now);
+        invalidate();
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private void addMember(String uid) {
+        if (uid == null || !members.add(uid)) return;
+        subscribe(uid);
+    }
+
+    private void removeMember(String uid) {
+        if (uid == null || uid.equals(ownUid) || !members.remove(uid)) return;
+        unsubscribe(uid);
+        Ranked old = byUid.remove(uid);
+        if (old != null) {
+            order.remove(old);
+            invalidate();
+        }
+    }
+
+    private void subscribe(String uid) {
+        if (subscribed.add(uid)) LeaderboardEntryPool.acquire(uid, this);
+    }
+
+    private void unsubscribe(String uid) {
+        if (subscribed.remove(uid)) LeaderboardEntryPool.release(uid, this);
+    }
+
+    /** Keeps live listeners only for ranked members near the visible rows (and for self). */
+    private void updateSubscriptions() {
+        if (!started) return;
+
+        int from = firstVisible - WINDOW_MARGIN;
+        int to = lastVisible + WINDOW_MARGIN;
+        List<String> near = new ArrayList<>();
+        List<String> far = new ArrayList<>();
+        int i = 0;
+        for (Ranked r : order) {
+            if ((i >= from && i <= to) || r.uid.equals(ownUid)) near.add(r.uid);
+            else far.add(r.uid);
+            i++;
+        }
+
+        // Applied after the walk: a pooled entry is delivered inside acquire() and
+        // onEntry moves nodes of order
+        for (String uid : far) unsubscribe(uid);
+        for (String uid : near) subscribe(uid);
+    }
+
+    private void invalidate() {
+        if (frameScheduled) return;
+        frameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frame);
+    }
+
+    private void publish() {
+        List<LiveTopBoard.Row> rows = new ArrayList<>(order.size());
+        int rank = 1;
+        for (Ranked r : order) rows.add(new LiveTopBoard.Row(rank++, r.uid, r.username, r.steps));
+        listener.onRanked(Collections.unmodifiableList(rows));
+        updateSubscriptions();
+    }
+}
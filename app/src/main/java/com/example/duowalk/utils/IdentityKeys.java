@@ -0,0 +1,184 @@
+package com.example.duowalk.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * IdentityKeys
+ *
+ * The ONE place that turns user input into index keys:
+ *   /usernames/{usernameKey}
+ *   /phone_index/{phoneHash}
+ * Claiming, editing, deleting and contact matching all call these, so the keys they
+ * compute are always identical.
+ *
+ * Cheap enough for bulk use (hashing a whole address book):
+ * - one SHA-256 MessageDigest per thread (ThreadLocal), reset per call
+ * - hex via a lookup table, no String.format
+ * - phone canonicalization is a single char loop, the only regex is precompiled
+ */
+public final class IdentityKeys {
+
+    /** Country code used for numbers written in national format ("050-1234567"). */
+    public static final String DEFAULT_COUNTRY_CODE = "972";
+
+    private static final int MIN_PHONE_DIGITS = 7;
+    private static final int MAX_PHONE_DIGITS = 15; // E.164 limit
+    // Digits after the trunk "0" of a DEFAULT_COUNTRY_CODE number (landline 8, mobile 9)
+    private static final int NATIONAL_MIN_DIGITS = 8;
+    private static final int NATIONAL_MAX_DIGITS = 9;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Separators the old normalization removed (kept for legacyPhoneHash)
+    private static final Pattern LEGACY_PHONE_SEPARATORS = Pattern.compile("[\\s\\-()]");
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Android / JVM ships SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private IdentityKeys() { }
+
+    // =========================
+    // Username
+    // =========================
+
+    /** Key used in /usernames: trimmed, lowercased with Locale.ROOT (same on every device locale). */
+    public static String usernameKey(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // =========================
+    // Phone
+    // =========================
+
+    /**
+     * E.164-style canonical form: "+" followed by digits only.
+     * - "+972 50-123-4567", "00972501234567", "972501234567" -> "+972501234567"
+     * - national "050-1234567" -> "+972501234567" (DEFAULT_COUNTRY_CODE)
+     * Spaces, dashes, dots and parentheses are dropped. The default country code is only
+     * applied to well-formed national numbers (trunk "0" + NATIONAL_MIN..MAX_DIGITS), so a
+     * foreign number typed without "+" / "00" ("1 555 123 4567") is rejected, not re-homed.
+     *
+     * @return canonical number, or null if the input has any other character, a misplaced
+     *         "+", or not a plausible digit count
+     */
+    public static String canonicalPhone(String raw) {
+        if (raw == null) return null;
+
+        StringBuilder digits = new StringBuilder(raw.length());
+        boolean international = false;
+
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if (c == '+') {
+                if (international || digits.length() > 0) return null;
+                international = true;
+            } else if (!isPhoneSeparator(c)) {
+                return null;
+            }
+        }
+
+        String d = digits.toString();
+        if (!international) {
+            if (d.startsWith("00")) {
+                d = d.substring(2);
+            } else if (d.startsWith("0")) {
+                int national = d.length() - 1;
+                if (national < NATIONAL_MIN_DIGITS || national > NATIONAL_MAX_DIGITS) return null;
+                d = DEFAULT_COUNTRY_CODE + d.substring(1);
+            } else if (!isDefaultCountryNumber(d)) {
+                return null;
+            }
+        }
+
+        if (d.length() < MIN_PHONE_DIGITS || d.length() > MAX_PHONE_DIGITS) return null;
+        return "+" + d;
+    }
+
+    /** True if the input canonicalizes to a plausible number. */
+    public static boolean isPossiblePhone(String raw) {
+        return canonicalPhone(raw) != null;
+    }
+
+    /** Key used in /phone_index: SHA-256 (hex) of the canonical number, or null if invalid. */
+    public static String phoneHash(String raw) {
+        String canonical = canonicalPhone(raw);
+        return (canonical != null) ? sha256Hex(canonical) : null;
+    }
+
+    /**
+     * Hash the way accounts created before canonicalization were indexed
+     * (trim + strip spaces/dashes/parentheses, no country code).
+     * Used to release / re-key those old /phone_index entries.
+     */
+    public static String legacyPhoneHash(String stored) {
+        if (stored == null) return null;
+        String normalized = LEGACY_PHONE_SEPARATORS.matcher(stored.trim()).replaceAll("");
+        return normalized.isEmpty() ? null : sha256Hex(normalized);
+    }
+
+    /**
+     * Legacy hashes (see legacyPhoneHash) of the spellings an old account could have typed
+     * for a canonical number that differ from phoneHash: "972501234567" and national
+     * "0501234567" ("+972501234567" already hashes to the canonical key). Claims must check
+     * them and contact discovery must look them up until every old entry is re-keyed.
+     */
+    public static List<String> legacyPhoneHashes(String canonical) {
+        List<String> out = new ArrayList<>(2);
+        if (canonical == null || !canonical.startsWith("+")) return out;
+
+        String digits = canonical.substring(1);
+        out.add(sha256Hex(digits));
+        if (digits.startsWith(DEFAULT_COUNTRY_CODE)) {
+            out.add(sha256Hex("0" + digits.substring(DEFAULT_COUNTRY_CODE.length())));
+        }
+        return out;
+    }
+
+    private static boolean isPhoneSeparator(char c) {
+        return Character.isWhitespace(c) || c == '-' || c == '.' || c == '(' || c == ')';
+    }
+
+    /** DEFAULT_COUNTRY_CODE + a national number, written without "+" ("972501234567"). */
+    private static boolean isDefaultCountryNumber(String d) {
+        if (!d.startsWith(DEFAULT_COUNTRY_CODE)) return false;
+        int national = d.length() - DEFAULT_COUNTRY_CODE.length();
+        return national >= NATIONAL_MIN_DIGITS && national <= NATIONAL_MAX_DIGITS;
+    }
+
+    // =========================
+    // Hashing
+    // =========================
+
+    public static String sha256Hex(String input) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return toHex(md.digest(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            out[j++] = HEX[v >>> 4];
+            out[j++] = HEX[v & 0x0F];
+        }
+        return new String(out);
+    }
+}
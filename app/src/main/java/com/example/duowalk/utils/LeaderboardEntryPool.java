@@ -0,0 +1,87 @@
+package com.example.duowalk.utils;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LeaderboardEntryPool
+ *
+ * Shared, reference-counted listeners on /leaderboard_entries/{uid}.
+ *
+ * - However many observers want the same user, there is ONE Firebase listener for them.
+ * - A new observer of an already-watched user gets the last value right away (no read).
+ * - The listener is removed when its last observer releases it.
+ *
+ * Main thread only.
+ */
+public final class LeaderboardEntryPool {
+
+    public interface Observer {
+        void onEntry(String uid, DataSnapshot entry);
+    }
+
+    private static final class Slot {
+        final DatabaseReference ref;
+        final Set<Observer> observers = new LinkedHashSet<>();
+        ValueEventListener listener;
+        DataSnapshot last;
+
+        Slot(DatabaseReference ref) {
+            this.ref = ref;
+        }
+    }
+
+    private static final Map<String, Slot> slots = new HashMap<>();
+
+    private LeaderboardEntryPool() {}
+
+    /** Starts delivering uid's entry to observer (no-op if it already observes it). */
+    public static void acquire(String uid, Observer observer) {
+        Slot slot = slots.get(uid);
+        if (slot == null) {
+            slot = new Slot(FirebaseUtils.leaderboardEntriesRef.child(uid));
+            slots.put(uid, slot);
+        }
+        if (!slot.observers.add(observer)) return;
+
+        if (slot.listener == null) {
+            final Slot s = slot;
+            s.listener = new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot snapshot) {
+                    s.last = snapshot;
+                    // Copy: observers may release from inside the callback
+                    for (Observer o : new ArrayList<>(s.observers)) o.onEntry(uid, snapshot);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError error) {
+                    // Unreadable entry: observers keep the last value they had
+                }
+            };
+            s.ref.addValueEventListener(s.listener);
+        } else if (slot.last != null) {
+            observer.onEntry(uid, slot.last);
+        }
+    }
+
+    /** Stops delivering uid's entry to observer; the last observer removes the listener. */
+    public static void release(String uid, Observer observer) {
+        Slot slot = slots.get(uid);
+        if (slot == null || !slot.observers.remove(observer)) return;
+        if (!slot.observers.isEmpty()) return;
+
+        if (slot.listener != null) slot.ref.removeEventListener(slot.listener);
+        slots.remove(uid);
+    }
+}
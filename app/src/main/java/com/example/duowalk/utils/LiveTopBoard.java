@@ -0,0 +1,191 @@
+package com.example.duowalk.utils;
+
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LiveTopBoard
+ *
+ * Live, paged view of one TopLeaderboards board for the leaderboard screen.
+ *
+ * - Ordered, bounded query: orderByChild("s").limitToLast(limit). The limit starts at one
+ *   page and grows by a page when the list is scrolled near its end (up to TOP_N).
+ * - Child events only touch a uid -> entry map; they never render anything themselves.
+ * - Any number of events within one frame cause ONE ranked publish on the next
+ *   Choreographer frame, so a burst of step updates costs at most one refresh per frame.
+ * - The published rows are immutable; the screen diffs them (ListAdapter / DiffUtil)
+ *   so only rows that changed or moved are rebound.
+ *
+ * Main thread only (Firebase and Choreographer callbacks both run there).
+ */
+public class LiveTopBoard {
+
+    public static final int PAGE_SIZE = 25;
+
+    /** One ranked row. Immutable, compared by value for diffing. */
+    public static final class Row {
+        public final int rank;
+        public final String uid;
+        public final String username;
+        public final long steps;
+
+        Row(int rank, String uid, String username, long steps) {
+            this.rank = rank;
+            this.uid = uid;
+            this.username = username;
+            this.steps = steps;
+        }
+
+        public boolean sameContent(Row o) {
+            return rank == o.rank && steps == o.steps && username.equals(o.username);
+        }
+    }
+
+    public interface Listener {
+        /** @param hasMore true if another page can be loaded */
+        void onRanked(List<Row> rows, boolean hasMore);
+        void onError(DatabaseError error);
+    }
+
+    private final String board;
+    private final String period;
+    private final Listener listener;
+
+    private final Map<String, Row> entries = new HashMap<>();
+    private int limit = PAGE_SIZE;
+    private Query query;
+    private boolean frameScheduled = false;
+
+    private final Choreographer.FrameCallback frame = frameTimeNanos -> {
+        frameScheduled = false;
+        publish();
+    };
+
+    private final ChildEventListener childListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            put(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            put(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+            if (entries.remove(snapshot.getKey()) != null) invalidate();
+        }
+
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            // Ranking is recomputed on publish
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            listener.onError(error);
+        }
+    };
+
+    // Same query -> shares the child listener's subscription, no extra download. Fires once
+    // after the initial children, so an empty board is still published.
+    private final ValueEventListener initialLoad = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            invalidate();
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            listener.onError(error);
+        }
+    };
+
+    public LiveTopBoard(String board, String period, Listener listener) {
+        this.board = board;
+        this.period = period;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (query != null) return;
+        query = TopLeaderboards.boardRef(board, period).orderByChild("s").limitToLast(limit);
+        query.addChildEventListener(childListener);
+        query.addListenerForSingleValueEvent(initialLoad);
+    }
+
+    public void stop() {
+        if (query != null) {
+            query.removeEventListener(childListener);
+            query.removeEventListener(initialLoad);
+            query = null;
+        }
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frame);
+            frameScheduled = false;
+        }
+    }
+
+    /** Grows the window by one page if the current one is full. */
+    public void loadMore() {
+        if (!hasMore()) return;
+
+        limit = Math.min(limit + PAGE_SIZE, TopLeaderboards.TOP_N);
+        // Rows already shown stay in the map; the wider query re-reports them from cache
+        stop();
+        start();
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private boolean hasMore() {
+        return query != null && entries.size() >= limit && limit < TopLeaderboards.TOP_N;
+    }
+
+    private void put(DataSnapshot e) {
+        String name = e.child("u").getValue(String.class);
+        Object s = e.child("s").getValue();
+        long steps = (s instanceof Number) ? ((Number) s).longValue() : 0L;
+        entries.put(e.getKey(), new Row(0, e.getKey(), name != null ? name : "?", steps));
+        invalidate();
+    }
+
+    /** Coalesces: at most one publish per frame however many events arrive. */
+    private void invalidate() {
+        if (frameScheduled) return;
+        frameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frame);
+    }
+
+    private void publish() {
+        List<Row> sorted = new ArrayList<>(entries.values());
+        Collections.sort(sorted, (a, b) -> {
+            int c = Long.compare(b.steps, a.steps);
+            return (c != 0) ? c : a.uid.compareTo(b.uid);
+        });
+
+        List<Row> ranked = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            Row r = sorted.get(i);
+            ranked.add(new Row(i + 1, r.uid, r.username, r.steps));
+        }
+        listener.onRanked(Collections.unmodifiableList(ranked), hasMore());
+    }
+}
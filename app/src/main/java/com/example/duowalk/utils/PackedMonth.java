@@ -0,0 +1,60 @@
+package com.example.duowalk.utils;
+
+import android.util.Base64;
+
+/**
+ * PackedMonth
+ *
+ * Encoding of a completed month of daily step counts as ONE RTDB string value:
+ *   [days: 1 byte][count day 1: 3 bytes]...[count day N: 3 bytes]  -> Base64 (no wrap)
+ *
+ * Fixed width per day (max 16,777,215 steps/day), so day d is at byte 1 + 3 * (d - 1).
+ * A 31-day month is 94 bytes / 128 chars, instead of 31 keyed children.
+ */
+public final class PackedMonth {
+
+    private static final int BYTES_PER_DAY = 3;
+    private static final int MAX_DAY_VALUE = 0xFFFFFF;
+
+    private PackedMonth() { }
+
+    /** days[i] = steps on day i + 1 of the month. */
+    public static String encode(int[] days) {
+        byte[] out = new byte[1 + days.length * BYTES_PER_DAY];
+        out[0] = (byte) days.length;
+
+        int p = 1;
+        for (int v : days) {
+            if (v < 0) v = 0;
+            if (v > MAX_DAY_VALUE) v = MAX_DAY_VALUE;
+            out[p++] = (byte) (v >>> 16);
+            out[p++] = (byte) (v >>> 8);
+            out[p++] = (byte) v;
+        }
+        return Base64.encodeToString(out, Base64.NO_WRAP);
+    }
+
+    /** @return daily counts, or an empty array if the value is not a valid packed month */
+    public static int[] decode(String packed) {
+        if (packed == null) return new int[0];
+
+        byte[] in;
+        try {
+            in = Base64.decode(packed, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return new int[0];
+        }
+        if (in.length == 0) return new int[0];
+
+        int n = in[0] & 0xFF;
+        if (in.length != 1 + n * BYTES_PER_DAY) return new int[0];
+
+        int[] days = new int[n];
+        int p = 1;
+        for (int i = 0; i < n; i++) {
+            days[i] = ((in[p] & 0xFF) << 16) | ((in[p + 1] & 0xFF) << 8) | (in[p + 2] & 0xFF);
+            p += BYTES_PER_DAY;
+        }
+        return days;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StepHistoryCompactor
+ *
+ * Retention for the RTDB step history. Everything older than the horizon is rolled into
+ *   /step_history/{uid}/{yyyy}/rollup/{MM}     (month total)
+ *   /step_history/{uid}/{yyyy}/rollup/total    (year total)
+ * and the originals are deleted. Per user, storage then plateaus at ~horizon days of
+ * daily data plus 13 numbers per year.
+ *
+ * Exactness: every update adds to the rollups (ServerValue.increment) AND deletes the
+ * entries it counted, in ONE multi-path update -> applied together or not at all, so a
+ * retry never counts anything twice. Only one device per account compacts (the one
+ * with the smallest id among the devices in /users/{uid}/steps/devices that synced
+ * within ACTIVE_DEVICE_MS), so two phones never race, and a retired or reinstalled phone
+ * whose slot stays behind does not block compaction forever.
+ *
+ * Two passes, oldest data first:
+ * 1) the legacy flat map /users/{uid}/steps/today/{date}: pages of LEGACY_PAGE entries;
+ *    old days go to the rollups, recent ones move to /step_history/.../{dd}/legacy.
+ * 2) /step_history/{uid}/{yyyy}: month nodes that ended before the horizon.
+ */
+public final class StepHistoryCompactor {
+
+    private static final String PREFS = "history_compactor";
+    private static final String K_HORIZON_DAYS = "horizon_days";
+
+    public static final int DEFAULT_HORIZON_DAYS = 400;
+    // Sealing and the chart screens need at least the previous full month as days
+    private static final int MIN_HORIZON_DAYS = 62;
+
+    // Bounded multi-path updates. A legacy entry costs at most 3 paths
+    // (delete + day or month rollup + year rollup), so a page stays < MAX_PATHS_PER_UPDATE.
+    private static final int MAX_PATHS_PER_UPDATE = 500;
+    private static final int LEGACY_PAGE = 150;
+
+    // Devices that have not synced for this long are not eligible to lead
+    private static final long ACTIVE_DEVICE_MS = 30L * 24L * 60L * 60L * 1000L;
+
+    /** Called once the whole run finished (or stopped on an error). */
+    public interface Callback {
+        void onDone(boolean success);
+    }
+
+    private final String uid;
+    private final String deviceId;
+    private final int horizonIndex;
+    private final String horizonKey;
+    private final Callback callback;
+
+    private StepHistoryCompactor(String uid, String deviceId, int horizonIndex, Callback callback) {
+        this.uid = uid;
+        this.deviceId = deviceId;
+        this.horizonIndex = horizonIndex;
+        this.horizonKey = DayClock.keyOf(horizonIndex);
+        this.callback = callback;
+    }
+
+    // =========================
+    // Configuration
+    // =========================
+
+    public static void setHorizonDays(Context context, int days) {
+        prefs(context).edit().putInt(K_HORIZON_DAYS, Math.max(days, MIN_HORIZON_DAYS)).apply();
+    }
+
+    /** First day index that is still kept as daily data. */
+    public static int horizonIndex(Context context) {
+        int days = Math.max(prefs(context).getInt(K_HORIZON_DAYS, DEFAULT_HORIZON_DAYS), MIN_HORIZON_DAYS);
+        return DayClock.get().today().index - days;
+    }
+
+    // =========================
+    // Run
+    // =========================
+
+    /** Starts a compaction run for uid; callback is always called exactly once. */
+    public static void run(Context context, String uid, String deviceId, Callback callback) {
+        if (uid == null || deviceId == null) {
+            callback.onDone(true);
+            return;
+        }
+        new StepHistoryCompactor(uid, deviceId, horizonIndex(context), callback).checkLeader();
+    }
+
+    /** Only the active device with the smallest id compacts (this device always counts as active). */
+    private void checkLeader() {
+        FirebaseUtils.usersRef.child(uid).child("steps").child("devices").get()
+                .addOnSuccessListener(devices -> {
+                    long activeSince = System.currentTimeMillis() - ACTIVE_DEVICE_MS;
+                    String leader = deviceId;
+                    for (DataSnapshot d : devices.getChildren()) {
+                        String key = d.getKey();
+                        if (key == null || key.compareTo(leader) >= 0) continue;
+
+                        Long lastSync = d.child("lastSync").getValue(Long.class);
+                        if (lastSync != null && lastSync >= activeSince) leader = key;
+                    }
+
+                    if (!leader.equals(deviceId)) {
+                        callback.onDone(true);
+                        return;
+                    }
+                    compactLegacyPage();
+                })
+                .addOnFailureListener(e -> callback.onDone(false));
+    }
+
+    // =========================
+    // Pass 1: legacy /users/{uid}/steps/today
+    // =========================
+
+    private void compactLegacyPage() {
+        FirebaseUtils.usersRef.child(uid).child("steps").child("today")
+                .orderByKey()
+                .limitToFirst(LEGACY_PAGE)
+                .get()
+                .addOnSuccessListener(page -> {
+                    if (!page.hasChildren()) {
+                        compactYear(null);
+                        return;
+                    }
+
+                    Map<String, Object> updates = new HashMap<>();
+                    Map<String, Long> rollups = new HashMap<>();
+
+                    for (DataSnapshot day : page.getChildren()) {
+                        String date = day.getKey();
+                        updates.put("users/" + uid + "/steps/today/" + date, null);
+
+                        String dayPath = FirebaseUtils.historyDayPath(uid, date);
+                        if (dayPath == null) continue; // malformed key -> just drop it
+
+                        long steps = FirebaseUtils.mergedDaySteps(day);
+                        if (steps <= 0L) continue;
+
+                        if (date.compareTo(horizonKey) < 0) {
+                            addRollup(rollups, date.substring(0, 4), date.substring(5, 7), steps);
+                        } else {
+                            updates.put(dayPath + "/legacy", steps);
+                        }
+                    }
+
+                    putRollups(updates, rollups);
+                    apply(updates, this::compactLegacyPage);
+                })
+                .addOnFailureListener(e -> callback.onDone(false));
+    }
+
+    // =========================
+    // Pass 2: /step_history/{uid}/{yyyy}
+    // =========================
+
+    /** Compacts the oldest year at or after fromYear, then moves on to the next one. */
+    private void compactYear(String fromYear) {
+        Query q = FirebaseUtils.stepHistoryRef.child(uid).orderByKey();
+        if (fromYear != null) q = q.startAt(fromYear);
+
+        q.limitToFirst(1).get()
+                .addOnSuccessListener(result -> {
+                    DataSnapshot yearSnap = null;
+                    for (DataSnapshot c : result.getChildren()) yearSnap = c;
+
+                    String yearKey = (yearSnap != null) ? yearSnap.getKey() : null;
+                    if (yearKey == null || yearKey.compareTo(horizonKey.substring(0, 4)) > 0) {
+                        callback.onDone(true);
+                        return;
+                    }
+
+                    int year;
+                    try {
+                        year = Integer.parseInt(yearKey);
+                    } catch (NumberFormatException e) {
+                        callback.onDone(true);
+                        return;
+                    }
+
+                    Map<String, Object> updates = new HashMap<>();
+                    Map<String, Long> rollups = new HashMap<>();
+
+                    for (DataSnapshot monthSnap : yearSnap.getChildren()) {
+                        int month = parseMonth(monthSnap.getKey());
+                        if (month < 0) continue; // "rollup"
+
+                        int days = DayClock.daysInMonth(year, month);
+                        int monthEnd = DayClock.indexOf(year, month, days);
+                        if (monthEnd >= horizonIndex) continue;
+
+                        long total = 0L;
+                        for (long v : FirebaseUtils.mergedMonthDays(monthSnap, days)) total += v;
+
+                        updates.put(FirebaseUtils.historyMonthPath(uid, yearKey, monthSnap.getKey()), null);
+                        if (total > 0L) addRollup(rollups, yearKey, monthSnap.getKey(), total);
+                    }
+
+                    putRollups(updates, rollups);
+                    String next = String.valueOf(year + 1);
+                    if (updates.isEmpty()) {
+                        compactYear(next);
+                    } else {
+                        apply(updates, () -> compactYear(next));
+                    }
+                })
+                .addOnFailureListener(e -> callback.onDone(false));
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    /** Sums per rollup path first, so each path appears once in the update. */
+    private void addRollup(Map<String, Long> rollups, String year, String month, long steps) {
+        String base = "step_history/" + uid + "/" + year + "/rollup/";
+        rollups.merge(base + month, steps, Long::sum);
+        rollups.merge(base + "total", steps, Long::sum);
+    }
+
+    private static void putRollups(Map<String, Object> updates, Map<String, Long> rollups) {
+        for (Map.Entry<String, Long> e : rollups.entrySet()) {
+            updates.put(e.getKey(), ServerValue.increment(e.getValue()));
+        }
+    }
+
+    private void apply(Map<String, Object> updates, Runnable next) {
+        if (updates.size() > MAX_PATHS_PER_UPDATE) {
+            // Page sizes keep us far below this; never split (splitting would break exactness)
+            callback.onDone(false);
+            return;
+        }
+
+        FirebaseUtils.rtDb.getReference().updateChildren(updates, (error, ref) -> {
+            if (error != null) {
+                callback.onDone(false);
+                return;
+            }
+            next.run();
+        });
+    }
+
+    private static int parseMonth(String key) {
+        if (key == null || key.length() != 2) return -1;
+        try {
+            int m = Integer.parseInt(key);
+            return (m >= 1 && m <= 12) ? m : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * StepHistoryIndex
+ *
+ * Local daily step history, indexed by DayClock day index.
+ *
+ * - values[]  : daily totals, values[i] = steps on day (baseDay + i)
+ * - fenwick[] : Fenwick (binary indexed) tree over values -> range sums in O(log n)
+ * - maxTree[] : segment tree of "offset of the best day" -> best day in a range in O(log n)
+ *
+ * StepCounterService updates it incrementally (set today's total on each checkpoint);
+ * StepsActivity / ProfileActivity query it. No network involved.
+ *
+ * Storage grows by doubling (rebuild is O(n)) and is persisted as the plain values array.
+ * All methods are synchronized (written on the tracker thread, read on the UI thread).
+ */
+public class StepHistoryIndex {
+
+    private static final String FILE_NAME = "step_history.bin";
+    private static final int FILE_MAGIC = 0x53544831; // "STH1"
+    private static final int MIN_CAPACITY = 64;
+
+    private static StepHistoryIndex instance;
+
+    private final AtomicFile file;
+
+    private int baseDay = -1;   // day index of values[0]; -1 = empty
+    private int length = 0;     // days stored = highest offset + 1
+    private int capacity = 0;   // power of two
+    private int[] values = new int[0];
+    private long[] fenwick = new long[1];
+    private int[] maxTree = new int[0];
+    private boolean dirty = false;
+
+    private StepHistoryIndex(File file) {
+        this.file = new AtomicFile(file);
+    }
+
+    /** Process-wide instance, loaded from disk on first use. */
+    public static synchronized StepHistoryIndex get(Context context) {
+        if (instance == null) {
+            instance = new StepHistoryIndex(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            instance.load();
+        }
+        return instance;
+    }
+
+    // =========================
+    // Updates
+    // =========================
+
+    /** Sets the total for a day. O(log n) unless storage has to grow. */
+    public synchronized void set(int dayIndex, int steps) {
+        if (steps < 0) steps = 0;
+
+        if (baseDay < 0) {
+            resize(dayIndex, MIN_CAPACITY);
+        } else if (dayIndex < baseDay || dayIndex >= baseDay + capacity) {
+            int newBase = Math.min(baseDay, dayIndex);
+            int needed = Math.max(baseDay + length, dayIndex + 1) - newBase;
+            resize(newBase, needed);
+        }
+
+        int off = dayIndex - baseDay;
+        int old = values[off];
+        if (old == steps && off < length) return;
+
+        values[off] = steps;
+        if (off >= length) length = off + 1;
+
+        long delta = (long) steps - old;
+        for (int i = off + 1; i <= capacity; i += i & -i) fenwick[i] += delta;
+
+        int node = off + capacity;
+        node >>= 1;
+        while (node >= 1) {
+            maxTree[node] = better(maxTree[node << 1], maxTree[(node << 1) + 1]);
+            node >>= 1;
+        }
+
+        dirty = true;
+    }
+
+    /** Seeds days that are not stored yet (used once to import older summaries). */
+    public synchronized void seedMissing(SparseIntArray days) {
+        for (int i = 0; i < days.size(); i++) {
+            int day = days.keyAt(i);
+            if (get(day) == 0) set(day, days.valueAt(i));
+        }
+    }
+
+    // =========================
+    // Queries
+    // =========================
+
+    /** Steps on one day (0 if unknown). */
+    public synchronized int get(int dayIndex) {
+        int off = dayIndex - baseDay;
+        if (baseDay < 0 || off < 0 || off >= length) return 0;
+        return values[off];
+    }
+
+    /** Total steps on days [fromDay, toDay] (inclusive). O(log n). */
+    public synchronized long sum(int fromDay, int toDay) {
+        if (baseDay < 0) return 0L;
+        int l = Math.max(fromDay - baseDay, 0);
+        int r = Math.min(toDay - baseDay, length - 1);
+        if (l > r) return 0L;
+        return prefix(r + 1) - prefix(l);
+    }
+
+    /** Average steps per day over [fromDay, toDay] (days without data count as 0). */
+    public double average(int fromDay, int toDay) {
+        int days = toDay - fromDay + 1;
+        return (days <= 0) ? 0.0 : (double) sum(fromDay, toDay) / days;
+    }
+
+    /** Day index of the best day in [fromDay, toDay], or -1 if there is none. O(log n). */
+    public synchronized int bestDay(int fromDay, int toDay) {
+        if (baseDay < 0) return -1;
+        int l = Math.max(fromDay - baseDay, 0);
+        int r = Math.min(toDay - baseDay, length - 1);
+        if (l > r) return -1;
+
+        int best = -1;
+        for (l += capacity, r += capacity + 1; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) best = better(best, maxTree[l++]);
+            if ((r & 1) == 1) best = better(best, maxTree[--r]);
+        }
+        return (best < 0 || values[best] == 0) ? -1 : baseDay + best;
+    }
+
+    /** Day index of the oldest stored day, or -1 if empty. */
+    public synchronized int firstDay() {
+        return (length == 0) ? -1 : baseDay;
+    }
+
+    /** True if no day was ever stored. */
+    public synchronized boolean isEmpty() {
+        return length == 0;
+    }
+
+    /** Total of the last n days ending at todayIndex (inclusive). */
+    public long sumLastDays(int todayIndex, int n) {
+        return sum(todayIndex - n + 1, todayIndex);
+    }
+
+    // =========================
+    // Persistence
+    // =========================
+
+    public synchronized void save() {
+        if (!dirty) return;
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(baseDay);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) out.writeInt(values[i]);
+            out.flush();
+            file.finishWrite(fos);
+            dirty = false;
+        } catch (IOException e) {
+            if (fos != null) file.failWrite(fos);
+        }
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != FILE_MAGIC) return;
+            int base = in.readInt();
+            int n = in.readInt();
+            if (base < 0 || n <= 0) return;
+
+            int[] loaded = new int[n];
+            for (int i = 0; i < n; i++) loaded[i] = in.readInt();
+
+            baseDay = base;
+            length = n;
+            capacity = 0;
+            values = loaded;
+            resize(base, n);
+            dirty = false;
+        } catch (IOException e) {
+            // No history yet
+        }
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    /** Re-bases/grows storage to hold `needed` days from newBase, then rebuilds both trees. O(n). */
+    private void resize(int newBase, int needed) {
+        int cap = MIN_CAPACITY;
+        while (cap < needed) cap <<= 1;
+
+        int[] newValues = new int[cap];
+        if (baseDay >= 0) {
+            int shift = baseDay - newBase;
+            System.arraycopy(values, 0, newValues, shift, Math.min(length, values.length));
+            length = length + shift;
+        }
+        baseDay = newBase;
+        capacity = cap;
+        values = newValues;
+
+        // Fenwick build in O(n)
+        fenwick = new long[cap + 1];
+        for (int i = 1; i <= cap; i++) {
+            fenwick[i] += values[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= cap) fenwick[parent] += fenwick[i];
+        }
+
+        // Max tree: leaves hold their own offset
+        maxTree = new int[cap << 1];
+        for (int i = 0; i < cap; i++) maxTree[cap + i] = i;
+        for (int i = cap - 1; i >= 1; i--) maxTree[i] = better(maxTree[i << 1], maxTree[(i << 1) + 1]);
+    }
+
+    private long prefix(int count) {
+        long s = 0L;
+        for (int i = count; i > 0; i -= i & -i) s += fenwick[i];
+        return s;
+    }
+
+    /** Offset with the larger value (earlier day wins ties); -1 means "none". */
+    private int better(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        if (values[b] > values[a]) return b;
+        if (values[a] > values[b]) return a;
+        return Math.min(a, b);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StepHistorySealer
+ *
+ * Seals completed months of this device's history in RTDB:
+ *   /step_history/{uid}/{yyyy}/{MM}/packed/{deviceId} = PackedMonth string
+ * and removes the device's day children of that month in the SAME multi-path update.
+ *
+ * - The current month (and yesterday, which can still get late batched steps) stay live
+ *   as individual days.
+ * - Values come from the local StepHistoryIndex, which holds exactly this device's counts.
+ * - Progress ("sealed through day index") is kept in "history_sealer" prefs per user.
+ */
+public final class StepHistorySealer {
+
+    private static final String PREFS = "history_sealer";
+    private static final String K_UID = "uid";
+    private static final String K_SEALED_THROUGH = "sealed_through";
+
+    private static final int MAX_MONTHS_PER_RUN = 12;
+
+    /** Called when the sealing write finished. */
+    public interface Callback {
+        void onDone(boolean success);
+    }
+
+    private StepHistorySealer() { }
+
+    /**
+     * Seals every completed month not sealed yet (up to MAX_MONTHS_PER_RUN).
+     *
+     * @return true if a write was started (callback will be called), false if nothing to seal
+     */
+    public static boolean sealCompletedMonths(Context context, String uid, String deviceId, Callback cb) {
+        if (uid == null || deviceId == null) return false;
+
+        SharedPreferences sp = context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        StepHistoryIndex history = StepHistoryIndex.get(context);
+
+        int first = history.firstDay();
+        if (first < 0) return false;
+
+        int start = uid.equals(sp.getString(K_UID, null))
+                ? Math.max(sp.getInt(K_SEALED_THROUGH, first - 1) + 1, first)
+                : first;
+        // Months before the horizon are (or will be) in the rollups -> never re-create them
+        start = Math.max(start, StepHistoryCompactor.horizonIndex(context));
+
+        // Yesterday must stay live -> a month can be sealed once its last day is before it
+        int liveFrom = DayClock.get().today().index - 1;
+
+        Map<String, Object> updates = new HashMap<>();
+        int sealedThrough = -1;
+
+        for (int m = 0; m < MAX_MONTHS_PER_RUN; m++) {
+            String key = DayClock.keyOf(start);
+            int year = Integer.parseInt(key.substring(0, 4));
+            int month = Integer.parseInt(key.substring(5, 7));
+
+            int monthStart = DayClock.indexOf(year, month, 1);
+            int days = DayClock.daysInMonth(year, month);
+            int monthEnd = monthStart + days - 1;
+            if (monthEnd >= liveFrom) break;
+
+            int[] counts = new int[days];
+            long total = 0L;
+            for (int d = 0; d < days; d++) {
+                counts[d] = history.get(monthStart + d);
+                total += counts[d];
+            }
+
+            // Nothing walked that month -> nothing stored for it either
+            if (total > 0L) {
+                updates.put(FirebaseUtils.historyMonthPath(uid, key.substring(0, 4), key.substring(5, 7))
+                        + "/packed/" + deviceId, PackedMonth.encode(counts));
+                for (int d = 0; d < days; d++) {
+                    updates.put(FirebaseUtils.historyDayPath(uid, DayClock.keyOf(monthStart + d))
+                            + "/" + deviceId, null);
+                }
+            }
+
+            sealedThrough = monthEnd;
+            start = monthEnd + 1;
+        }
+
+        if (sealedThrough < 0) return false;
+
+        final int through = sealedThrough;
+        Runnable markSealed = () -> sp.edit()
+                .putString(K_UID, uid)
+                .putInt(K_SEALED_THROUGH, through)
+                .apply();
+
+        if (updates.isEmpty()) {
+            markSealed.run();
+            return false;
+        }
+
+        FirebaseUtils.rtDb.getReference().updateChildren(updates, (error, ref) -> {
+            if (error == null) markSealed.run();
+            if (cb != null) cb.onDone(error == null);
+        });
+        return true;
+    }
+}
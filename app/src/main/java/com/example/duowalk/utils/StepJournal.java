@@ -0,0 +1,239 @@
+package com.example.duowalk.utils;
+
+import android.util.AtomicFile;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * StepJournal
+ *
+ * Append-only log of raw step sensor readings in a memory-mapped file.
+ *
+ * Record layout (RECORD_SIZE bytes, little endian):
+ *   long  timestamp (wall ms)
+ *   float sensor value (steps since boot)
+ *   int   delta applied to the totals
+ *   int   day index (DayClock.Day.index)
+ *   int   check (mixes the fields above; 0-filled space never matches)
+ *
+ * - Appending = a few puts into the mapped buffer; the kernel owns the dirty pages,
+ *   so records survive a process kill without any explicit write.
+ * - open() finds the tail by scanning until the first record whose check fails.
+ * - compact() folds all records into per-day totals ("step_days.bin") and empties the log,
+ *   but only once every record is covered by a checkpoint (markCheckpoint), so records
+ *   that recovery still has to replay are never folded away.
+ *
+ * Owned by StepCounterService's tracker thread (not thread-safe).
+ */
+public class StepJournal {
+
+    public static final int RECORD_SIZE = 24;
+    public static final int CAPACITY = 8192; // records (~192KB)
+
+    private static final String JOURNAL_FILE = "step_journal.bin";
+    private static final String DAYS_FILE = "step_days.bin";
+    private static final int DAYS_MAGIC = 0x53544431; // "STD1"
+    private static final int CHECK_SEED = 0x5EED5EED;
+
+    /** Receives journal records (used for recovery). */
+    public interface RecordVisitor {
+        void onRecord(long timestampMs, float sensorValue, int delta, int dayIndex);
+    }
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buf;
+    private final AtomicFile daysFile;
+    private int count; // records in the log
+    // Records at or before this time are already in the owner's persisted state
+    private long checkpointedMs = Long.MIN_VALUE;
+
+    private StepJournal(RandomAccessFile raf, MappedByteBuffer buf, AtomicFile daysFile) {
+        this.raf = raf;
+        this.buf = buf;
+        this.daysFile = daysFile;
+    }
+
+    /** Maps the journal in dir and recovers its tail. */
+    public static StepJournal open(File dir) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, JOURNAL_FILE), "rw");
+        long size = (long) CAPACITY * RECORD_SIZE;
+        if (raf.length() != size) raf.setLength(size);
+
+        MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        StepJournal j = new StepJournal(raf, buf, new AtomicFile(new File(dir, DAYS_FILE)));
+        j.count = j.scanTail();
+        return j;
+    }
+
+    // =========================
+    // Append (hot path)
+    // =========================
+
+    /**
+     * Appends one record. Compacts first if the log is full; if the records are not
+     * checkpointed yet the new record is not journaled (call isFull() + checkpoint first).
+     * No allocation unless a compaction is needed.
+     */
+    public void append(long timestampMs, float sensorValue, int delta, int dayIndex) {
+        if (count >= CAPACITY) {
+            compact();
+            if (count >= CAPACITY) return;
+        }
+
+        int pos = count * RECORD_SIZE;
+        buf.putLong(pos, timestampMs);
+        buf.putFloat(pos + 8, sensorValue);
+        buf.putInt(pos + 12, delta);
+        buf.putInt(pos + 16, dayIndex);
+        buf.putInt(pos + 20, check(timestampMs, sensorValue, delta, dayIndex));
+        count++;
+    }
+
+    /** Asks the OS to write dirty pages now (call on checkpoints). */
+    public void sync() {
+        buf.force();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isFull() {
+        return count >= CAPACITY;
+    }
+
+    /**
+     * The owner persisted its state through lastEventMs (records up to that time will
+     * never be replayed again), so they may be compacted.
+     */
+    public void markCheckpoint(long lastEventMs) {
+        checkpointedMs = lastEventMs;
+    }
+
+    // =========================
+    // Recovery
+    // =========================
+
+    /** Visits records newer than sinceMs, oldest first. */
+    public void forEachSince(long sinceMs, RecordVisitor visitor) {
+        for (int i = 0; i < count; i++) {
+            int pos = i * RECORD_SIZE;
+            long ts = buf.getLong(pos);
+            if (ts <= sinceMs) continue;
+            visitor.onRecord(ts, buf.getFloat(pos + 8), buf.getInt(pos + 12), buf.getInt(pos + 16));
+        }
+    }
+
+    // =========================
+    // Compaction
+    // =========================
+
+    /**
+     * Adds every record's delta into the per-day totals file and empties the log.
+     * No-op while any record is newer than the last checkpoint (recovery still needs it).
+     * If writing the totals fails the log is kept as is (nothing is lost).
+     */
+    public void compact() {
+        if (count == 0) return;
+
+        for (int i = 0; i < count; i++) {
+            if (buf.getLong(i * RECORD_SIZE) > checkpointedMs) return;
+        }
+
+        SparseIntArray days = readDailyTotals();
+        for (int i = 0; i < count; i++) {
+            int pos = i * RECORD_SIZE;
+            int delta = buf.getInt(pos + 12);
+            if (delta <= 0) continue;
+            int day = buf.getInt(pos + 16);
+            days.put(day, days.get(day, 0) + delta);
+        }
+
+        if (!writeDailyTotals(days)) return;
+
+        // Zero the used part so the tail scan stops at 0 next time
+        for (int pos = 0, end = count * RECORD_SIZE; pos < end; pos += 4) buf.putInt(pos, 0);
+        count = 0;
+        buf.force();
+    }
+
+    /** Per-day totals produced by past compactions (day index -> steps). */
+    public SparseIntArray readDailyTotals() {
+        SparseIntArray days = new SparseIntArray();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(daysFile.openRead()))) {
+            if (in.readInt() != DAYS_MAGIC) return days;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int day = in.readInt();
+                days.put(day, in.readInt());
+            }
+        } catch (IOException e) {
+            // No summaries yet
+        }
+        return days;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException ignored) { }
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private boolean writeDailyTotals(SparseIntArray days) {
+        FileOutputStream fos = null;
+        try {
+            fos = daysFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(DAYS_MAGIC);
+            out.writeInt(days.size());
+            for (int i = 0; i < days.size(); i++) {
+                out.writeInt(days.keyAt(i));
+                out.writeInt(days.valueAt(i));
+            }
+            out.flush();
+            daysFile.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            if (fos != null) daysFile.failWrite(fos);
+            return false;
+        }
+    }
+
+    private int scanTail() {
+        for (int i = 0; i < CAPACITY; i++) {
+            int pos = i * RECORD_SIZE;
+            long ts = buf.getLong(pos);
+            float v = buf.getFloat(pos + 8);
+            int delta = buf.getInt(pos + 12);
+            int day = buf.getInt(pos + 16);
+            if (ts == 0L || buf.getInt(pos + 20) != check(ts, v, delta, day)) return i;
+        }
+        return CAPACITY;
+    }
+
+    private static int check(long ts, float v, int delta, int day) {
+        int h = CHECK_SEED;
+        h = 31 * h + (int) (ts ^ (ts >>> 32));
+        h = 31 * h + Float.floatToIntBits(v);
+        h = 31 * h + delta;
+        h = 31 * h + day;
+        return (h == 0) ? 1 : h;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.duowalk.utils;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StepPercentileAggregator
+ *
+ * Builds the global step percentile sketches (StepQuantileSketch) and publishes them:
+ *
+ * /stats/step_percentiles/daily   = { date, n, sketch, updatedAt }  (users who synced today)
+ * /stats/step_percentiles/allTime = { n, sketch, updatedAt }
+ *
+ * - Reads /public_profiles in key-ordered pages of PAGE_SIZE, one page at a time, so
+ *   memory stays bounded; each page only adds to the two sketches.
+ * - Both nodes are written in one update at the end (a few hundred characters each).
+ * - Only accounts with the "admin" custom claim may write /stats (rules), so this runs
+ *   from StepPercentileJobService on admin devices only.
+ */
+public final class StepPercentileAggregator {
+
+    public static final String NODE = "stats/step_percentiles";
+    public static final String BOARD_DAILY = "daily";
+    public static final String BOARD_ALL_TIME = "allTime";
+
+    private static final int PAGE_SIZE = 500;
+
+    public interface Callback {
+        void onDone(boolean success);
+    }
+
+    private final String today = DayClock.get().todayKey();
+    private final StepQuantileSketch daily = new StepQuantileSketch();
+    private final StepQuantileSketch allTime = new StepQuantileSketch();
+    private final Callback callback;
+
+    private StepPercentileAggregator(Callback callback) {
+        this.callback = callback;
+    }
+
+    public static void run(Callback callback) {
+        new StepPercentileAggregator(callback).readPage(null);
+    }
+
+    private void readPage(String afterKey) {
+        Query page = FirebaseUtils.publicProfilesRef.orderByKey();
+        if (afterKey != null) page = page.startAfter(afterKey);
+
+        page.limitToFirst(PAGE_SIZE).get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                callback.onDone(false);
+                return;
+            }
+
+            String lastKey = null;
+            long n = 0L;
+            for (DataSnapshot profile : task.getResult().getChildren()) {
+                lastKey = profile.getKey();
+                n++;
+
+                // Profiles that never synced steps are not users at 0 steps
+                Long all = profile.child("allTimeSteps").getValue(Long.class);
+                if (all != null) allTime.add(all);
+
+                Long steps = profile.child("steps").getValue(Long.class);
+                if (steps != null && today.equals(profile.child("stepsDate").getValue(String.class))) {
+                    daily.add(steps);
+                }
+            }
+
+            if (n == PAGE_SIZE) readPage(lastKey);
+            else publish();
+        });
+    }
+
+    private void publish() {
+        Map<String, Object> updates = new HashMap<>();
+
+        String d = NODE + "/" + BOARD_DAILY + "/";
+        updates.put(d + "date", today);
+        updates.put(d + "n", daily.count());
+        updates.put(d + "sketch", daily.encode());
+        updates.put(d + "updatedAt", ServerValue.TIMESTAMP);
+
+        String a = NODE + "/" + BOARD_ALL_TIME + "/";
+        updates.put(a + "n", allTime.count());
+        updates.put(a + "sketch", allTime.encode());
+        updates.put(a + "updatedAt", ServerValue.TIMESTAMP);
+
+        FirebaseUtils.rtDb.getReference().updateChildren(updates,
+                (error, ref) -> callback.onDone(error == null));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StepPercentiles
+ *
+ * Client side of the global percentile sketches (see StepPercentileAggregator).
+ *
+ * - Each board is ONE small node (/stats/step_percentiles/{board}), fetched at most once
+ *   per REFRESH_MS and cached in "step_percentiles" SharedPreferences.
+ * - The decoded sketch is kept in memory; every lookup after that is O(1), no network.
+ * - The daily sketch is only used on the day it was built for.
+ * - A sketch is a snapshot taken at its updatedAt (the job runs every few hours), so the
+ *   daily board is looked up with the user's steps AS OF that time (StepsAt) and the
+ *   result carries that time; comparing today's full count against other users' counts
+ *   from hours earlier would inflate the percentile as the day goes on.
+ */
+public final class StepPercentiles {
+
+    private static final String PREFS = "step_percentiles";
+    private static final long REFRESH_MS = 60L * 60L * 1000L;
+    // Per board: "<prefix><board>"
+    private static final String K_FETCHED = "fetched_";
+    private static final String K_SKETCH = "sketch_";
+    private static final String K_DATE = "date_";
+    private static final String K_UPDATED_AT = "updated_at_";
+
+    public interface Callback {
+        /**
+         * @param percentile share of users with fewer steps (0-100), or -1 if unknown
+         * @param asOfMs     when the sketch was built (0 if unknown)
+         */
+        void onPercentile(double percentile, long asOfMs);
+    }
+
+    /** The user's steps at a past moment (the sketch's build time). */
+    public interface StepsAt {
+        long stepsAt(long asOfMs);
+    }
+
+    private static final Map<String, StepQuantileSketch> sketches = new HashMap<>();
+
+    private StepPercentiles() { }
+
+    /** Percentile of steps on a board (StepPercentileAggregator.BOARD_*). Main thread. */
+    public static void lookup(Context context, String board, long steps, Callback cb) {
+        lookup(context, board, asOfMs -> steps, cb);
+    }
+
+    /**
+     * Percentile of the user's steps at the time the board's sketch was built.
+     * Main thread.
+     */
+    public static void lookup(Context context, String board, StepsAt steps, Callback cb) {
+        SharedPreferences sp = context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+
+        if (now - sp.getLong(K_FETCHED + board, 0L) < REFRESH_MS) {
+            deliver(sp, board, steps, cb);
+            return;
+        }
+
+        FirebaseUtils.rtDb.getReference(StepPercentileAggregator.NODE).child(board).get()
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful() && task.getResult() != null) {
+                        DataSnapshot node = task.getResult();
+                        sp.edit()
+                                .putLong(K_FETCHED + board, now)
+                                .putString(K_SKETCH + board, node.child("sketch").getValue(String.class))
+                                .putString(K_DATE + board, node.child("date").getValue(String.class))
+                                .putLong(K_UPDATED_AT + board, updatedAt(node))
+                                .apply();
+                        sketches.remove(board);
+                    }
+                    // Offline / failed: fall back to whatever is cached
+                    deliver(sp, board, steps, cb);
+                });
+    }
+
+    private static void deliver(SharedPreferences sp, String board, StepsAt steps, Callback cb) {
+        long asOf = sp.getLong(K_UPDATED_AT + board, 0L);
+        cb.onPercentile(percentileFromCache(sp, board, steps.stepsAt(asOf)), asOf);
+    }
+
+    private static long updatedAt(DataSnapshot node) {
+        Long v = node.child("updatedAt").getValue(Long.class);
+        return (v != null) ? v : 0L;
+    }
+
+    private static double percentileFromCache(SharedPreferences sp, String board, long steps) {
+        if (StepPercentileAggregator.BOARD_DAILY.equals(board)
+                && !DayClock.get().todayKey().equals(sp.getString(K_DATE + board, null))) {
+            return -1;
+        }
+
+        StepQuantileSketch sketch = sketches.get(board);
+        if (sketch == null) {
+            sketch = StepQuantileSketch.decode(sp.getString(K_SKETCH + board, null));
+            sketches.put(board, sketch);
+        }
+        return (sketch.count() > 0L) ? sketch.percentileOf(steps) : -1;
+    }
+}
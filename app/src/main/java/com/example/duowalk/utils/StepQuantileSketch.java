@@ -0,0 +1,158 @@
+package com.example.duowalk.utils;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * StepQuantileSketch
+ *
+ * Mergeable histogram of step totals with logarithmic buckets, for "what percentile am I?"
+ * without ranking against every user.
+ *
+ * - Bucket 0 holds 0 steps; bucket i >= 1 holds [GAMMA^(i-1), GAMMA^i).
+ *   With GAMMA = 1.05 a bucket spans 5% of its value, and BUCKETS covers > 10^10 steps.
+ * - Merging two sketches = adding counts, so partial sketches (pages, days) combine exactly.
+ * - percentileOf() is O(1): one log for the bucket + a prefix-sum lookup. Inside a bucket
+ *   half its count is assumed below, so the error is at most half of that bucket's share
+ *   of users.
+ *
+ * Encoded as ONE RTDB string: [version: 1 byte][varint count per bucket, trailing empty
+ * buckets dropped] -> Base64 (no wrap). Typically a few hundred characters.
+ *
+ * Not thread-safe.
+ */
+public final class StepQuantileSketch {
+
+    public static final double GAMMA = 1.05;
+    public static final int BUCKETS = 512;
+
+    private static final int VERSION = 1;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0L;
+
+    // below[i] = users in buckets < i; built on the first query after a change
+    private long[] below;
+
+    public void add(long steps) {
+        counts[bucketOf(steps)]++;
+        total++;
+        below = null;
+    }
+
+    public void merge(StepQuantileSketch other) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+        total += other.total;
+        below = null;
+    }
+
+    /** Number of users in the sketch. */
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Share of users with fewer steps than steps, in percent (0-100).
+     * O(1) once the prefix sums are built (one pass, on the first query).
+     */
+    public double percentileOf(long steps) {
+        if (total == 0L) return 0.0;
+        if (below == null) buildPrefix();
+
+        int b = bucketOf(steps);
+        double under = below[b] + counts[b] / 2.0;
+        return 100.0 * under / total;
+    }
+
+    /** Approximate steps at percentile p (0-100): lower bound of the bucket it falls in. */
+    public long valueAt(double p) {
+        if (total == 0L) return 0L;
+        if (below == null) buildPrefix();
+
+        long target = (long) Math.ceil(Math.max(0.0, Math.min(100.0, p)) / 100.0 * total);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (below[i] + counts[i] >= target && counts[i] > 0) return lowerBound(i);
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    // =========================
+    // Encoding
+    // =========================
+
+    public String encode() {
+        int last = BUCKETS - 1;
+        while (last >= 0 && counts[last] == 0L) last--;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (last + 1) * 2);
+        out.write(VERSION);
+        for (int i = 0; i <= last; i++) writeVarint(out, counts[i]);
+        return Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+    }
+
+    /** @return the sketch, or an empty one if the value is not a valid encoding */
+    public static StepQuantileSketch decode(String encoded) {
+        StepQuantileSketch sketch = new StepQuantileSketch();
+        if (encoded == null) return sketch;
+
+        byte[] in;
+        try {
+            in = Base64.decode(encoded, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return sketch;
+        }
+        if (in.length == 0 || (in[0] & 0xFF) != VERSION) return sketch;
+
+        int p = 1;
+        int bucket = 0;
+        while (p < in.length && bucket < BUCKETS) {
+            long v = 0L;
+            int shift = 0;
+            int b;
+            do {
+                if (p >= in.length || shift > 56) return new StepQuantileSketch(); // truncated
+                b = in[p++] & 0xFF;
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            sketch.counts[bucket++] = v;
+            sketch.total += v;
+        }
+        return sketch;
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    static int bucketOf(long steps) {
+        if (steps <= 0L) return 0;
+        int b = (int) Math.floor(Math.log(steps) / LOG_GAMMA) + 1;
+        return Math.min(Math.max(b, 1), BUCKETS - 1);
+    }
+
+    private static long lowerBound(int bucket) {
+        return (bucket == 0) ? 0L : (long) Math.ceil(Math.pow(GAMMA, bucket - 1));
+    }
+
+    private void buildPrefix() {
+        long[] b = new long[BUCKETS];
+        long run = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            b[i] = run;
+            run += counts[i];
+        }
+        below = b;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0L) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * StepSyncOutbox
+ *
+ * Durable queue of step totals waiting to be written to Firebase.
+ *
+ * - Keyed by day: a newer total for the same date replaces the older one (coalescing),
+ *   so being offline for hours costs one entry per day, not one write per tick.
+ * - Persisted in "sync_outbox" SharedPreferences -> survives process death, so a day that
+ *   closed while offline is still uploaded later (no lost history).
+ * - At most ONE write is in flight. While it is pending (e.g. offline), new totals just
+ *   coalesce here instead of piling up in the RTDB client's write queue.
+ * - A flush sends every pending day + all-time in one multi-path update.
+ * - Totals are this device's own counts; they go to its slot (see DeviceId), never to the
+ *   account-wide numbers, so two phones on one account do not overwrite each other.
+ * - The same write fans out the account totals (own + peer devices) to the public profile
+ *   and the leaderboard entry.
+ * - The value last written per day is remembered ("acked"), so each write can also set
+ *   this device's absolute totals of the weeks / months it touches (see
+ *   FirebaseUtils.saveStepsBatch). Absolute values make a repeated write harmless.
+ *   A day that is neither pending nor acked (after an upgrade, or older than the acked
+ *   window) is taken from StepHistoryIndex, which holds the same per-day values this
+ *   device writes, so a partial acked set never lowers a total. After an account switch
+ *   only days from the switch on are taken from it (earlier ones were the other account's).
+ *
+ * Thread-safe (synchronized): used from the tracker thread and Firebase callbacks.
+ */
+public class StepSyncOutbox {
+
+    private static final String PREFS = "sync_outbox";
+    private static final String K_UID = "uid";
+    // First day index whose local history belongs to the bound user
+    private static final String K_HISTORY_FROM = "history_from";
+    private static final String K_ALL_TIME = "all_time";
+    private static final String DAY_PREFIX = "day_";
+    // Value this device last wrote for a day (summed into the week / month totals)
+    private static final String ACKED_PREFIX = "acked_";
+    // Acked days older than this (before the newest one) are forgotten
+    private static final int ACKED_KEEP_DAYS = 62;
+    // Latest own totals (kept after upload, needed to compute the public account totals)
+    private static final String K_KNOWN_DATE = "known_date";
+    private static final String K_KNOWN_TODAY = "known_today";
+    private static final String K_KNOWN_ALL_TIME = "known_all_time";
+    // Other devices of the same account (from /users/{uid}/steps/devices)
+    private static final String K_PEER_DATE = "peer_date";
+    private static final String K_PEER_TODAY = "peer_today";
+    private static final String K_PEER_ALL_TIME = "peer_all_time";
+
+    private static StepSyncOutbox instance;
+
+    private final SharedPreferences sp;
+    private final String deviceId;
+    private final StepHistoryIndex history;
+
+    private String uid;
+    private int historyFrom = Integer.MIN_VALUE;
+    private final TreeMap<String, Integer> pendingDays = new TreeMap<>();
+    private final TreeMap<String, Integer> ackedDays = new TreeMap<>();
+    private long pendingAllTime = -1L; // -1 = nothing pending
+    private boolean inFlight = false;
+
+    private String knownDate;
+    private int knownToday;
+    private long knownAllTime = -1L;
+
+    private String peerDate;
+    private long peerToday;
+    private long peerAllTime;
+
+    private StepSyncOutbox(SharedPreferences sp, String deviceId, StepHistoryIndex history) {
+        this.sp = sp;
+        this.deviceId = deviceId;
+        this.history = history;
+        load();
+    }
+
+    public static synchronized StepSyncOutbox get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new StepSyncOutbox(
+                    app.getSharedPreferences(PREFS, Context.MODE_PRIVATE), DeviceId.get(app),
+                    StepHistoryIndex.get(app));
+        }
+        return instance;
+    }
+
+    // =========================
+    // Enqueue
+    // =========================
+
+    /**
+     * Makes sure pending entries belong to uid.
+     * Entries queued for a different (logged out) user are dropped.
+     */
+    public synchronized void bindUser(String uid) {
+        if (uid == null || uid.equals(this.uid)) return;
+
+        // First login on this device: its whole local history is this user's
+        historyFrom = (this.uid == null) ? Integer.MIN_VALUE : DayClock.get().today().index;
+        this.uid = uid;
+        pendingDays.clear();
+        ackedDays.clear();
+        pendingAllTime = -1L;
+        knownDate = null;
+        knownToday = 0;
+        knownAllTime = -1L;
+        peerDate = null;
+        peerToday = 0L;
+        peerAllTime = 0L;
+        sp.edit().clear().putString(K_UID, uid).putInt(K_HISTORY_FROM, historyFrom).apply();
+    }
+
+    /** Queues (or replaces) the total for a day. */
+    public synchronized void putDay(String dateKey, int total) {
+        if (dateKey == null) return;
+
+        // "yyyy-MM-dd" sorts chronologically
+        if (knownDate == null || dateKey.compareTo(knownDate) >= 0) {
+            knownDate = dateKey;
+            knownToday = total;
+            sp.edit().putString(K_KNOWN_DATE, dateKey).putInt(K_KNOWN_TODAY, total).apply();
+        }
+
+        Integer old = pendingDays.put(dateKey, total);
+        if (old != null && old == total) return;
+        sp.edit().putInt(DAY_PREFIX + dateKey, total).apply();
+    }
+
+    /** Queues (or replaces) the all-time total. */
+    public synchronized void putAllTime(long allTime) {
+        if (pendingAllTime == allTime) return;
+        pendingAllTime = allTime;
+        knownAllTime = allTime;
+        sp.edit().putLong(K_ALL_TIME, allTime).putLong(K_KNOWN_ALL_TIME, allTime).apply();
+    }
+
+    /**
+     * Totals of the account's other devices, so the public numbers (profile + leaderboard)
+     * can be the account sum while this device still only writes its own slot.
+     */
+    public synchronized void setPeerTotals(String date, long today, long allTime) {
+        if (allTime == peerAllTime && today == peerToday
+                && (date == null ? peerDate == null : date.equals(peerDate))) return;
+
+        peerDate = date;
+        peerToday = today;
+        peerAllTime = allTime;
+        sp.edit()
+                .putString(K_PEER_DATE, date)
+                .putLong(K_PEER_TODAY, today)
+                .putLong(K_PEER_ALL_TIME, allTime)
+                .apply();
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /** The user the queued totals belong to (null before the first bindUser). */
+    public synchronized String getUid() {
+        return uid;
+    }
+
+    /** Account totals (this device + peers) as last published, or null if not known yet. */
+    public synchronized FirebaseUtils.StepTotals getPublicTotals() {
+        return publicTotals();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingDays.isEmpty() && pendingAllTime < 0L;
+    }
+
+    // =========================
+    // Flush
+    // =========================
+
+    /** Called when a flush finished (success or not). */
+    public interface FlushCallback {
+        void onFlushed(boolean success);
+    }
+
+    /**
+     * Sends everything pending in one multi-path update, unless a write is already in flight.
+     *
+     * @return true if a write was started
+     */
+    public boolean flush(FlushCallback callback) {
+        final String flushUid;
+        final Map<String, Integer> days;
+        final Map<String, Long> weeks = new HashMap<>();
+        final Map<String, Long> months = new HashMap<>();
+        final long allTime;
+        final FirebaseUtils.StepTotals pub;
+
+        synchronized (this) {
+            if (inFlight || uid == null || isEmpty()) return false;
+
+            flushUid = uid;
+            days = new HashMap<>(pendingDays);
+
+            // This device's days as they are once the write lands
+            TreeMap<String, Integer> own = new TreeMap<>(ackedDays);
+            own.putAll(pendingDays);
+            for (String date : days.keySet()) {
+                if (date.length() != 10) continue;
+                String week = DayClock.weekKeyOf(date);
+                if (!weeks.containsKey(week)) {
+                    weeks.put(week, sum(own, DayClock.indexOfKey(week), 7));
+                }
+                String month = date.substring(0, 7);
+                if (!months.containsKey(month)) {
+                    int y = Integer.parseInt(month.substring(0, 4));
+                    int m = Integer.parseInt(month.substring(5, 7));
+                    months.put(month, sum(own, DayClock.indexOf(y, m, 1), DayClock.daysInMonth(y, m)));
+                }
+            }
+            allTime = pendingAllTime;
+            pub = publicTotals();
+            inFlight = true;
+        }
+
+        FirebaseUtils.saveStepsBatch(flushUid, deviceId, days, weeks, months, allTime, pub, (error, ref) -> {
+            boolean ok = (error == null);
+            synchronized (StepSyncOutbox.this) {
+                inFlight = false;
+                if (ok && flushUid.equals(uid)) removeAcked(days, allTime);
+            }
+            if (callback != null) callback.onFlushed(ok);
+        });
+        return true;
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    /** Account totals (this device + peers), or null while this device's own totals are unknown. */
+    private FirebaseUtils.StepTotals publicTotals() {
+        if (knownDate == null || knownAllTime < 0L) return null;
+
+        long today = knownToday;
+        if (knownDate.equals(peerDate)) today += peerToday;
+        return new FirebaseUtils.StepTotals(knownDate, today, knownAllTime + peerAllTime);
+    }
+
+    /**
+     * This device's steps over count days from firstDay: pending / acked value per day,
+     * else the local history (from historyFrom on).
+     */
+    private long sum(TreeMap<String, Integer> own, int firstDay, int count) {
+        long total = 0L;
+        for (int d = firstDay; d < firstDay + count; d++) {
+            Integer v = own.get(DayClock.keyOf(d));
+            if (v != null) total += v;
+            else if (d >= historyFrom) total += history.get(d);
+        }
+        return total;
+    }
+
+    /**
+     * Records the written values (summed into later period totals), and removes entries
+     * that did not change while the write was in flight.
+     */
+    private void removeAcked(Map<String, Integer> sentDays, long sentAllTime) {
+        SharedPreferences.Editor ed = sp.edit();
+
+        for (Map.Entry<String, Integer> e : sentDays.entrySet()) {
+            // Now on the server, whether or not it changed locally meanwhile
+            ackedDays.put(e.getKey(), e.getValue());
+            ed.putInt(ACKED_PREFIX + e.getKey(), e.getValue());
+
+            Integer now = pendingDays.get(e.getKey());
+            if (now != null && now.equals(e.getValue())) {
+                pendingDays.remove(e.getKey());
+                ed.remove(DAY_PREFIX + e.getKey());
+            }
+        }
+
+        if (sentAllTime >= 0L && pendingAllTime == sentAllTime) {
+            pendingAllTime = -1L;
+            ed.remove(K_ALL_TIME);
+        }
+
+        // Only recent days can still change; keep the acked map bounded
+        if (!ackedDays.isEmpty()) {
+            String oldestKept = DayClock.keyOf(DayClock.indexOfKey(ackedDays.lastKey()) - ACKED_KEEP_DAYS);
+            while (!ackedDays.isEmpty() && ackedDays.firstKey().compareTo(oldestKept) < 0) {
+                ed.remove(ACKED_PREFIX + ackedDays.pollFirstEntry().getKey());
+            }
+        }
+
+        ed.apply();
+    }
+
+    private void load() {
+        uid = sp.getString(K_UID, null);
+        historyFrom = sp.getInt(K_HISTORY_FROM, Integer.MIN_VALUE);
+        pendingAllTime = sp.getLong(K_ALL_TIME, -1L);
+        knownDate = sp.getString(K_KNOWN_DATE, null);
+        knownToday = sp.getInt(K_KNOWN_TODAY, 0);
+        knownAllTime = sp.getLong(K_KNOWN_ALL_TIME, -1L);
+        peerDate = sp.getString(K_PEER_DATE, null);
+        peerToday = sp.getLong(K_PEER_TODAY, 0L);
+        peerAllTime = sp.getLong(K_PEER_ALL_TIME, 0L);
+
+        for (Map.Entry<String, ?> e : sp.getAll().entrySet()) {
+            if (!(e.getValue() instanceof Integer)) continue;
+            if (e.getKey().startsWith(DAY_PREFIX)) {
+                pendingDays.put(e.getKey().substring(DAY_PREFIX.length()), (Integer) e.getValue());
+            } else if (e.getKey().startsWith(ACKED_PREFIX)) {
+                ackedDays.put(e.getKey().substring(ACKED_PREFIX.length()), (Integer) e.getValue());
+            }
+        }
+    }
+}
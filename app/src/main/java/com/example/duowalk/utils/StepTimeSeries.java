@@ -0,0 +1,236 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * StepTimeSeries
+ *
+ * Per-minute step counts for the last DAYS days, kept in a primitive int[] ring buffer.
+ *
+ * - Slot for a minute = (epoch minute) % capacity. headMinute is the newest minute
+ *   written; slots between the old and new head are zeroed when time moves forward.
+ * - Range queries (hour / day / week sums, active minutes) walk the array directly
+ *   and allocate nothing.
+ * - Persisted to a small binary file holding only the non-zero minutes.
+ *
+ * Written by StepCounterService (tracker thread), read by the UI -> all methods are synchronized.
+ */
+public class StepTimeSeries {
+
+    public static final int DAYS = 7;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long MINUTE_MS = 60_000L;
+
+    /** Minimum steps in a minute for it to count as an "active minute". */
+    public static final int ACTIVE_MINUTE_STEPS = 60;
+
+    /** Deltas spanning longer than this are put in one minute instead of spread. */
+    private static final long MAX_SPREAD_MS = 5L * MINUTE_MS;
+
+    private static final String FILE_NAME = "step_minutes.bin";
+    private static final int FILE_MAGIC = 0x53544D31; // "STM1"
+
+    private static StepTimeSeries instance;
+
+    private final int capacity = DAYS * MINUTES_PER_DAY;
+    private final int[] buckets = new int[capacity];
+    private long headMinute = -1L; // -1 = empty
+
+    private final AtomicFile file;
+    private boolean dirty = false;
+
+    private StepTimeSeries(File file) {
+        this.file = new AtomicFile(file);
+    }
+
+    /** Process-wide instance, loaded from disk on first use. */
+    public static synchronized StepTimeSeries get(Context context) {
+        if (instance == null) {
+            instance = new StepTimeSeries(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            instance.load();
+        }
+        return instance;
+    }
+
+    // =========================
+    // Writes
+    // =========================
+
+    /** Adds steps to the minute containing ms. */
+    public synchronized void record(long ms, int steps) {
+        if (steps <= 0) return;
+        long minute = ms / MINUTE_MS;
+        advanceTo(minute);
+        if (minute <= headMinute - capacity) return; // older than the window
+
+        buckets[slot(minute)] += steps;
+        dirty = true;
+    }
+
+    /**
+     * Spreads steps evenly over the minutes in [fromMs, toMs].
+     * Used for batched sensor deltas so one delivery doesn't look like one very busy minute.
+     */
+    public synchronized void recordSpread(long fromMs, long toMs, int steps) {
+        if (steps <= 0) return;
+        if (fromMs <= 0L || toMs <= fromMs || toMs - fromMs > MAX_SPREAD_MS) {
+            record(toMs, steps);
+            return;
+        }
+
+        long first = fromMs / MINUTE_MS;
+        long last = toMs / MINUTE_MS;
+        int n = (int) (last - first + 1);
+        int each = steps / n;
+        int rest = steps - each * n;
+
+        for (long m = first; m <= last; m++) {
+            // Put the rounding leftover in the newest minute
+            record(m * MINUTE_MS, (m == last) ? each + rest : each);
+        }
+    }
+
+    // =========================
+    // Queries (no allocation)
+    // =========================
+
+    /** Sum of steps in [fromMs, toMs). */
+    public synchronized int sum(long fromMs, long toMs) {
+        if (headMinute < 0L) return 0;
+
+        long from = Math.max(fromMs / MINUTE_MS, headMinute - capacity + 1);
+        long to = Math.min((toMs - 1) / MINUTE_MS, headMinute);
+
+        int total = 0;
+        for (long m = from; m <= to; m++) total += buckets[slot(m)];
+        return total;
+    }
+
+    /** Steps in the last hour before nowMs. */
+    public int sumLastHour(long nowMs) {
+        return sum(nowMs - 60L * MINUTE_MS, nowMs + 1);
+    }
+
+    /** Steps in a local day (day bounds from DayClock). */
+    public int sumDay(DayClock.Day day) {
+        return sum(day.startMs, day.endMs);
+    }
+
+    /**
+     * Steps in the last 7 local days including today.
+     * The start is the local midnight DAYS - 1 days before today (calendar arithmetic,
+     * like DayClock), so a DST change inside the week does not shift it by an hour.
+     */
+    public int sumWeek(DayClock.Day today) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(today.startMs);
+        c.add(Calendar.DAY_OF_MONTH, -(DAYS - 1));
+        return sum(c.getTimeInMillis(), today.endMs);
+    }
+
+    /** Number of minutes in [fromMs, toMs) with at least ACTIVE_MINUTE_STEPS steps. */
+    public synchronized int activeMinutes(long fromMs, long toMs) {
+        if (headMinute < 0L) return 0;
+
+        long from = Math.max(fromMs / MINUTE_MS, headMinute - capacity + 1);
+        long to = Math.min((toMs - 1) / MINUTE_MS, headMinute);
+
+        int count = 0;
+        for (long m = from; m <= to; m++) {
+            if (buckets[slot(m)] >= ACTIVE_MINUTE_STEPS) count++;
+        }
+        return count;
+    }
+
+    // =========================
+    // Persistence
+    // =========================
+
+    /** Writes the buffer to disk if it changed. Call from the tracker thread on checkpoints. */
+    public synchronized void save() {
+        if (!dirty) return;
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+            int nonZero = 0;
+            for (int v : buckets) if (v != 0) nonZero++;
+
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(capacity);
+            out.writeLong(headMinute);
+            out.writeInt(nonZero);
+
+            // Only non-zero minutes: (minutes before head, steps)
+            for (int age = 0; age < capacity && headMinute - age >= 0; age++) {
+                int v = buckets[slot(headMinute - age)];
+                if (v == 0) continue;
+                out.writeShort(age);
+                out.writeShort(Math.min(v, 0xFFFF));
+            }
+            out.flush();
+
+            file.finishWrite(fos);
+            dirty = false;
+        } catch (IOException e) {
+            if (fos != null) file.failWrite(fos);
+        }
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != FILE_MAGIC) return;
+            if (in.readInt() != capacity) return; // window size changed -> start fresh
+
+            long head = in.readLong();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                int age = in.readUnsignedShort();
+                int v = in.readUnsignedShort();
+                if (age < capacity && head - age >= 0) buckets[slot(head - age)] = v;
+            }
+            headMinute = head;
+        } catch (IOException e) {
+            // No file yet / corrupt -> empty series
+        }
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private void advanceTo(long minute) {
+        if (headMinute < 0L) {
+            headMinute = minute;
+            return;
+        }
+        if (minute <= headMinute) return;
+
+        long gap = minute - headMinute;
+        if (gap >= capacity) {
+            Arrays.fill(buckets, 0);
+        } else {
+            for (long m = headMinute + 1; m <= minute; m++) buckets[slot(m)] = 0;
+        }
+        headMinute = minute;
+        dirty = true;
+    }
+
+    private int slot(long minute) {
+        return (int) (minute % capacity);
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.duowalk.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TopLeaderboards
+ *
+ * Materialized top-N boards, so opening the leaderboard is ONE small read
+ * instead of downloading every public profile and sorting on the phone.
+ *
+ * /leaderboards/{board}/{period}/{uid} = { u: username, s: steps }
+ *   - daily   / "yyyy-MM-dd"
+ *   - weekly  / "yyyy-MM-dd" of the week's Sunday (see DayClock.weekStartIndex)
+ *   - allTime / "all"
+ *
+ * - Each board holds at most TOP_N entries, indexed on "s" (orderByChild + limitToLast).
+ * - Read by the leaderboard screen through LiveTopBoard (one small, paged query).
+ * - Updated incrementally from the step sync path. While we are on the board, or it has
+ *   room, the write is just our own entry (no read). Only when we are not on a full board
+ *   is it read once, then ONE multi-path update writes our entry and deletes the lowest
+ *   entry our value beats. The rules check every entry on its own: our own entry while
+ *   the board stays within TOP_N, someone else's only as such an eviction (full board, we
+ *   are not on it, our new value is higher). A rejected write marks the board as full, so
+ *   the next sync reads it.
+ * - The board's size and minimum are cached locally from the last submit: while we are
+ *   not on a full board and our value is below its minimum, nothing is sent at all.
+ * - Old daily / weekly boards are deleted by pruneOldBoards (admin job).
+ * - Values are the account totals already published to /leaderboard_entries (weekly from
+ *   its per-device weekSteps totals, one small read).
+ */
+public class TopLeaderboards {
+
+    public static final int TOP_N = 100;
+
+    public static final String BOARD_DAILY = "daily";
+    public static final String BOARD_WEEKLY = "weekly";
+    public static final String BOARD_ALL_TIME = "allTime";
+    public static final String PERIOD_ALL_TIME = "all";
+
+    private static final String[] BOARDS = { BOARD_DAILY, BOARD_WEEKLY, BOARD_ALL_TIME };
+
+    // Retention (pruneOldBoards): periods kept, and how far back older ones are deleted
+    private static final int DAILY_KEEP_DAYS = 7;
+    private static final int WEEKLY_KEEP_WEEKS = 4;
+    private static final int PRUNE_LOOKBACK = 30;
+
+    private static final String PREFS = "top_leaderboards";
+    private static final String K_UID = "uid";
+    private static final String K_USERNAME = "username";
+    // Per board: "<key>_<board>"
+    private static final String K_PERIOD = "period";
+    private static final String K_SENT = "sent";
+    private static final String K_MIN = "min";
+    private static final String K_COUNT = "count";
+    private static final String K_LISTED = "listed";
+
+    private static TopLeaderboards instance;
+
+    private final SharedPreferences sp;
+    private final boolean[] inFlight = new boolean[BOARDS.length];
+    private boolean usernameLoading = false;
+
+    private TopLeaderboards(Context app) {
+        this.sp = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized TopLeaderboards get(Context context) {
+        if (instance == null) instance = new TopLeaderboards(context.getApplicationContext());
+        return instance;
+    }
+
+    /** Board node for a period. Children are uids, ordered with orderByChild("s"). */
+    public static DatabaseReference boardRef(String board, String period) {
+        return FirebaseUtils.rtDb.getReference("leaderboards").child(board).child(period);
+    }
+
+    /** Period key of a board for the given day. */
+    public static String periodOf(String board, DayClock.Day day) {
+        switch (board) {
+            case BOARD_DAILY:  return day.key;
+            case BOARD_WEEKLY: return DayClock.keyOf(DayClock.weekStartIndex(day.index));
+            default:           return PERIOD_ALL_TIME;
+        }
+    }
+
+    // =========================
+    // Write path (step sync)
+    // =========================
+
+    /**
+     * Called after totals were synced. Sends only the boards whose value changed and that
+     * we can actually be on (cached minimum), at most one submit per board in flight.
+     */
+    public void onTotalsSynced(String uid, @Nullable FirebaseUtils.StepTotals totals) {
+        if (uid == null || totals == null) return;
+
+        bindUser(uid);
+        String username = sp.getString(K_USERNAME, null);
+        if (username == null) {
+            loadUsername(uid, totals);
+            return;
+        }
+
+        DayClock.Day today = DayClock.get().today();
+        // The daily board only makes sense for the day the totals are for
+        if (today.key.equals(totals.date)) {
+            submit(0, uid, username, today.key, totals.today);
+        }
+        submit(2, uid, username, PERIOD_ALL_TIME, totals.allTime);
+
+        // Weekly = sum of the per-device week totals kept by the sync write itself
+        String week = periodOf(BOARD_WEEKLY, today);
+        FirebaseUtils.leaderboardEntriesRef.child(uid).child("weekSteps").child(week).get()
+                .addOnSuccessListener(snap -> {
+                    if (snap.exists()) submit(1, uid, username, week, FirebaseUtils.mergedDaySteps(snap));
+                });
+    }
+
+    /** Profile screens call this after a rename; the next sync rewrites our entries. */
+    public synchronized void onUsernameChanged(String username) {
+        SharedPreferences.Editor ed = sp.edit().putString(K_USERNAME, username);
+        for (String board : BOARDS) ed.remove(K_SENT + "_" + board);
+        ed.apply();
+    }
+
+    private synchronized void bindUser(String uid) {
+        if (uid.equals(sp.getString(K_UID, null))) return;
+        sp.edit().clear().putString(K_UID, uid).apply();
+    }
+
+    /** One leaf read, only until the username is cached. */
+    private synchronized void loadUsername(String uid, FirebaseUtils.StepTotals totals) {
+        if (usernameLoading) return;
+        usernameLoading = true;
+
+        FirebaseUtils.leaderboardEntriesRef.child(uid).child("username").get()
+                .addOnCompleteListener(task -> {
+                    String name = task.isSuccessful() && task.getResult() != null
+                            ? task.getResult().getValue(String.class)
+                            : null;
+                    synchronized (TopLeaderboards.this) {
+                        usernameLoading = false;
+                        if (name == null || name.isEmpty()) return; // profile not set up yet
+                        sp.edit().putString(K_USERNAME, name).apply();
+                    }
+                    onTotalsSynced(uid, totals);
+                });
+    }
+
+    private void submit(int b, String uid, String username, String period, long value) {
+        final String board = BOARDS[b];
+
+        synchronized (this) {
+            if (inFlight[b]) return; // the next sync sends the newer value
+
+            // New period -> forget what we knew about the previous board
+            if (!period.equals(sp.getString(K_PERIOD + "_" + board, null))) {
+                sp.edit()
+                        .putString(K_PERIOD + "_" + board, period)
+                        .remove(K_SENT + "_" + board)
+                        .remove(K_MIN + "_" + board)
+                        .remove(K_COUNT + "_" + board)
+                        .remove(K_LISTED + "_" + board)
+                        .apply();
+            }
+
+            if (value <= 0L || value == sp.getLong(K_SENT + "_" + board, -1L)) return;
+
+            boolean listed = sp.getBoolean(K_LISTED + "_" + board, false);
+            boolean full = sp.getLong(K_COUNT + "_" + board, 0L) >= TOP_N;
+            long min = sp.getLong(K_MIN + "_" + board, 0L);
+            if (!listed && full && value <= min) {
+                // Cannot make the board -> no network at all
+                sp.edit().putLong(K_SENT + "_" + board, value).apply();
+                return;
+            }
+            inFlight[b] = true;
+
+            // On the board, or room on it: our own entry is the whole write, no read
+            if (listed || !full) {
+                boardRef(board, period).child(uid).setValue(entry(username, value), (error, r) ->
+                        entryWritten(b, period, listed, value, error == null));
+                return;
+            }
+        }
+
+        // Not listed on a (possibly) full board: read it once to find the entry to evict
+        DatabaseReference ref = boardRef(board, period);
+        ref.get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                boardWritten(b, null, null, null, uid, value); // retried on the next sync
+                return;
+            }
+            DataSnapshot current = task.getResult();
+
+            Map<String, Object> updates = upsert(current, uid, username, value);
+            if (updates == null) {
+                // Nothing to change, or we cannot make the board: just remember its state
+                boardWritten(b, period, current, null, uid, value);
+                return;
+            }
+
+            ref.updateChildren(updates, (error, r) -> {
+                // Rejected (the board changed meanwhile) -> retried on the next sync
+                if (error != null) boardWritten(b, null, null, null, uid, value);
+                else boardWritten(b, period, current, updates, uid, value);
+            });
+        });
+    }
+
+    /**
+     * Caches the board's state after a single-entry write.
+     * Rejected = evicted meanwhile, or the board filled up: the next submit reads it.
+     */
+    private synchronized void entryWritten(int b, String period, boolean wasListed, long value, boolean ok) {
+        inFlight[b] = false;
+
+        final String board = BOARDS[b];
+        if (!period.equals(sp.getString(K_PERIOD + "_" + board, null))) return;
+
+        SharedPreferences.Editor ed = sp.edit();
+        if (ok) {
+            long count = sp.getLong(K_COUNT + "_" + board, 0L) + (wasListed ? 0L : 1L);
+            ed.putLong(K_SENT + "_" + board, value)
+                    .putLong(K_COUNT + "_" + board, count)
+                    .putBoolean(K_LISTED + "_" + board, true);
+            if (!wasListed) ed.putLong(K_MIN + "_" + board, Math.min(sp.getLong(K_MIN + "_" + board, value), value));
+        } else {
+            ed.putBoolean(K_LISTED + "_" + board, false)
+                    .putLong(K_COUNT + "_" + board, TOP_N);
+        }
+        ed.apply();
+    }
+
+    /**
+     * Caches the board's state (size, minimum, listed) after a full-board submit.
+     *
+     * @param period  null if nothing is known (failed read / rejected write)
+     * @param current board as read before our write
+     * @param written the update we applied to it, or null if nothing was written
+     */
+    private synchronized void boardWritten(int b, @Nullable String period, @Nullable DataSnapshot current,
+                                           @Nullable Map<String, Object> written, String uid, long value) {
+        inFlight[b] = false;
+        if (period == null || current == null) return;
+
+        final String board = BOARDS[b];
+        if (!period.equals(sp.getString(K_PERIOD + "_" + board, null))) return;
+
+        // Board as it is after our write: written keys are our entry or the evicted one
+        long min = Long.MAX_VALUE;
+        long count = 0L;
+        for (DataSnapshot e : current.getChildren()) {
+            if (written != null && written.containsKey(e.getKey())) continue;
+            min = Math.min(min, stepsOf(e.child("s").getValue()));
+            count++;
+        }
+        if (written != null) {
+            min = Math.min(min, value);
+            count++;
+        }
+
+        sp.edit()
+                .putLong(K_SENT + "_" + board, value)
+                .putLong(K_MIN + "_" + board, min == Long.MAX_VALUE ? 0L : min)
+                .putLong(K_COUNT + "_" + board, count)
+                .putBoolean(K_LISTED + "_" + board, written != null || current.hasChild(uid))
+                .apply();
+    }
+
+    /**
+     * Board-relative paths that apply our value to a board (at most TOP_N entries).
+     *
+     * @return null if nothing changes (no write)
+     */
+    @Nullable
+    private static Map<String, Object> upsert(DataSnapshot board, String uid, String username, long value) {
+        DataSnapshot mine = board.child(uid);
+        Map<String, Object> updates = new HashMap<>();
+
+        if (mine.exists()) {
+            if (stepsOf(mine.child("s").getValue()) == value
+                    && username.equals(mine.child("u").getValue())) return null;
+        } else if (board.getChildrenCount() >= TOP_N) {
+            String lowest = null;
+            long lowestSteps = Long.MAX_VALUE;
+            for (DataSnapshot e : board.getChildren()) {
+                long s = stepsOf(e.child("s").getValue());
+                if (s < lowestSteps) {
+                    lowestSteps = s;
+                    lowest = e.getKey();
+                }
+            }
+            if (lowest == null || value <= lowestSteps) return null;
+            updates.put(lowest, null); // evict the lowest entry
+        }
+
+        updates.put(uid, entry(username, value));
+        return updates;
+    }
+
+    private static Map<String, Object> entry(String username, long value) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("u", username);
+        entry.put("s", value);
+        return entry;
+    }
+
+    // =========================
+    // Retention (admin job)
+    // =========================
+
+    /**
+     * Deletes daily boards older than DAILY_KEEP_DAYS and weekly boards older than
+     * WEEKLY_KEEP_WEEKS: ONE blind multi-path update of the period keys in the
+     * PRUNE_LOOKBACK periods before that (no reads). The rules only let admin accounts
+     * delete a whole board, so this runs from StepPercentileJobService.
+     */
+    public static void pruneOldBoards(DatabaseReference.CompletionListener listener) {
+        int today = DayClock.get().today().index;
+        int thisWeek = DayClock.weekStartIndex(today);
+
+        Map<String, Object> updates = new HashMap<>();
+        for (int i = 0; i < PRUNE_LOOKBACK; i++) {
+            updates.put(BOARD_DAILY + "/" + DayClock.keyOf(today - DAILY_KEEP_DAYS - i), null);
+            updates.put(BOARD_WEEKLY + "/" + DayClock.keyOf(thisWeek - 7 * (WEEKLY_KEEP_WEEKS + i)), null);
+        }
+        FirebaseUtils.rtDb.getReference("leaderboards").updateChildren(updates, listener);
+    }
+
+    private static long stepsOf(Object v) {
+        return (v instanceof Number) ? ((Number) v).longValue() : 0L;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.duowalk.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * UsernameSearch
+ *
+ * Prefix search over the /usernames/{usernameKey} -> uid index (keys are already
+ * normalized by IdentityKeys.usernameKey, so ordering by key is ordering by name).
+ *
+ * - Network query: orderByKey().startAt(prefix).endAt(prefix + "\uf8ff").limitToFirst(PAGE_SIZE)
+ * - Debounced: only the last input within DEBOUNCE_MS reaches the network; older responses
+ *   that arrive late are dropped.
+ * - Display names are not part of the query: displayName() reads public_profiles/{uid}/username
+ *   lazily, so only rows that are actually shown cost a leaf read. Names are cached by uid;
+ *   the key is shown until the name arrives (and if the profile has no name).
+ * - LRU cache of prefix -> result. If a shorter prefix already returned a COMPLETE result
+ *   (fewer than PAGE_SIZE rows), a longer prefix is answered by filtering it locally.
+ * - A failed query is reported through Callback.onError and is not cached.
+ *
+ * Use from the main thread; results are delivered on the main thread.
+ */
+public class UsernameSearch {
+
+    public static final int PAGE_SIZE = 20;
+    private static final long DEBOUNCE_MS = 250L;
+    private static final int CACHE_SIZE = 32;
+
+    // Highest code point in the BMP private use area -> "every key starting with prefix"
+    private static final String PREFIX_END = "\uf8ff";
+
+    /** One search hit. */
+    public static final class Match {
+        public final String usernameKey;
+        public final String uid;
+
+        Match(String usernameKey, String uid) {
+            this.usernameKey = usernameKey;
+            this.uid = uid;
+        }
+    }
+
+    public interface Callback {
+        void onResults(String query, List<Match> matches);
+
+        void onError(String query, String message);
+    }
+
+    /** Cached answer for one prefix. complete = every key with this prefix is in matches. */
+    private static final class Result {
+        final List<Match> matches;
+        final boolean complete;
+
+        Result(List<Match> matches, boolean complete) {
+            this.matches = matches;
+            this.complete = complete;
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final LinkedHashMap<String, Result> cache =
+            new LinkedHashMap<String, Result>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    // uid -> display name (key when the profile has none); uids with a read in flight
+    private final Map<String, String> names = new HashMap<>();
+    private final Set<String> loadingNames = new HashSet<>();
+
+    private Runnable pending;
+    private long generation = 0L;
+
+    /**
+     * Debounced search for the raw text typed by the user.
+     * Empty input clears the results immediately.
+     */
+    public void search(String rawInput, Callback callback) {
+        if (pending != null) handler.removeCallbacks(pending);
+        final long gen = ++generation;
+
+        String prefix = (rawInput == null) ? "" : IdentityKeys.usernameKey(rawInput);
+        if (prefix.isEmpty()) {
+            callback.onResults(prefix, Collections.emptyList());
+            return;
+        }
+
+        // Answerable from memory -> no debounce needed either
+        List<Match> local = fromCache(prefix);
+        if (local != null) {
+            callback.onResults(prefix, local);
+            return;
+        }
+
+        pending = () -> {
+            pending = null;
+            query(prefix, gen, callback);
+        };
+        handler.postDelayed(pending, DEBOUNCE_MS);
+    }
+
+    /**
+     * Name to show for a hit. Unknown names start one leaf read and return the key for now;
+     * onLoaded runs (main thread) once the name is cached.
+     */
+    public String displayName(Match m, Runnable onLoaded) {
+        String name = names.get(m.uid);
+        if (name != null) return name;
+
+        if (loadingNames.add(m.uid)) {
+            FirebaseUtils.publicProfilesRef.child(m.uid).child("username").get()
+                    .addOnCompleteListener(t -> {
+                        loadingNames.remove(m.uid);
+                        // Failed read -> not cached, the next bind retries
+                        if (!t.isSuccessful() || t.getResult() == null) return;
+                        String loaded = t.getResult().getValue(String.class);
+                        names.put(m.uid, (loaded != null) ? loaded : m.usernameKey);
+                        if (onLoaded != null) onLoaded.run();
+                    });
+        }
+        return m.usernameKey;
+    }
+
+    /** Drops a pending (debounced) query. */
+    public void cancel() {
+        if (pending != null) handler.removeCallbacks(pending);
+        pending = null;
+        generation++;
+    }
+
+    // =========================
+    // Internal
+    // =========================
+
+    private void query(String prefix, long gen, Callback callback) {
+        FirebaseUtils.usernamesRef
+                .orderByKey()
+                .startAt(prefix)
+                .endAt(prefix + PREFIX_END)
+                .limitToFirst(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(snap -> {
+                    List<Match> matches = new ArrayList<>();
+                    for (DataSnapshot c : snap.getChildren()) {
+                        Object uid = c.getValue();
+                        if (c.getKey() != null && uid != null) {
+                            matches.add(new Match(c.getKey(), String.valueOf(uid)));
+                        }
+                    }
+                    cache.put(prefix, new Result(matches, matches.size() < PAGE_SIZE));
+
+                    // A newer input was typed meanwhile -> its own query/answer wins
+                    if (gen == generation) callback.onResults(prefix, matches);
+                })
+                .addOnFailureListener(e -> {
+                    if (gen == generation) callback.onError(prefix, e.getMessage());
+                });
+    }
+
+    /** Exact cache hit, or local filtering of the longest cached complete shorter prefix. */
+    private List<Match> fromCache(String prefix) {
+        Result exact = cache.get(prefix);
+        if (exact != null) return exact.matches;
+
+        for (int len = prefix.length() - 1; len > 0; len--) {
+            Result r = cache.get(prefix.substring(0, len));
+            if (r == null || !r.complete) continue;
+
+            List<Match> narrowed = new ArrayList<>();
+            for (Match m : r.matches) {
+                if (m.usernameKey.startsWith(prefix)) narrowed.add(m);
+            }
+            cache.put(prefix, new Result(narrowed, true));
+            return narrowed;
+        }
+        return null;
+    }
+}
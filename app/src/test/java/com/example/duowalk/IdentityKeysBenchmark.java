@@ -0,0 +1,77 @@
+package com.example.duowalk;
+
+import com.example.duowalk.utils.IdentityKeys;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput of the identity-key path (canonicalize + SHA-256 + hex) against the old
+ * per-call MessageDigest + String.format copy, over an address-book sized input.
+ *
+ * Timing only, no assertions: skipped unless run with ./gradlew testDebugUnitTest -Pbenchmarks
+ */
+public class IdentityKeysBenchmark {
+
+    private static final int N = 20_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private final String[] phones = new String[N];
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        for (int i = 0; i < N; i++) phones[i] = "050-" + (1_000_000 + i);
+    }
+
+    @Test
+    public void phoneHash() throws Exception {
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            runIdentityKeys();
+            runOldCopy();
+        }
+
+        long fast = Long.MAX_VALUE;
+        long old = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            fast = Math.min(fast, runIdentityKeys());
+            old = Math.min(old, runOldCopy());
+        }
+
+        System.out.println("phoneHash x" + N + " (best of " + ROUNDS + "): IdentityKeys "
+                + fast / 1_000_000 + " ms, old copy " + old / 1_000_000 + " ms");
+    }
+
+    private long runIdentityKeys() {
+        long t0 = System.nanoTime();
+        int sink = 0;
+        for (String p : phones) sink += IdentityKeys.phoneHash(p).length();
+        long t = System.nanoTime() - t0;
+        if (sink == 0) throw new AssertionError(); // keeps the loop from being optimized away
+        return t;
+    }
+
+    private long runOldCopy() throws Exception {
+        long t0 = System.nanoTime();
+        int sink = 0;
+        for (String p : phones) sink += oldSha256Hex(p.trim().replaceAll("[\\s\\-()]", "")).length();
+        long t = System.nanoTime() - t0;
+        if (sink == 0) throw new AssertionError();
+        return t;
+    }
+
+    /** The implementation that used to be copy-pasted in the activities. */
+    private static String oldSha256Hex(String input) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
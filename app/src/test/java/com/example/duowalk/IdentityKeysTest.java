@@ -0,0 +1,91 @@
+package com.example.duowalk;
+
+import com.example.duowalk.utils.IdentityKeys;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * IdentityKeys: keys must be identical for every spelling of the same identity.
+ */
+public class IdentityKeysTest {
+
+    @Test
+    public void usernameKey_isLocaleIndependent() {
+        Locale saved = Locale.getDefault();
+        try {
+            // Turkish lowercases "I" to dotless "\u0131" with the default locale
+            Locale.setDefault(new Locale("tr"));
+            assertEquals("itamar", IdentityKeys.usernameKey("  ITAMAR "));
+            assertEquals("itamar", IdentityKeys.usernameKey("Itamar"));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test
+    public void canonicalPhone_sameNumberSameKey() {
+        String expected = "+972501234567";
+        assertEquals(expected, IdentityKeys.canonicalPhone("050-123 4567"));
+        assertEquals(expected, IdentityKeys.canonicalPhone("+972 (50) 123-4567"));
+        assertEquals(expected, IdentityKeys.canonicalPhone("00972501234567"));
+        assertEquals(expected, IdentityKeys.canonicalPhone("972-50-123-4567"));
+        assertEquals("+97221234567", IdentityKeys.canonicalPhone("02.123.4567"));
+        assertEquals(IdentityKeys.phoneHash("050-1234567"), IdentityKeys.phoneHash("+972501234567"));
+    }
+
+    @Test
+    public void canonicalPhone_rejectsImplausibleNumbers() {
+        assertNull(IdentityKeys.canonicalPhone("12"));
+        assertNull(IdentityKeys.canonicalPhone("+1234567890123456"));
+        assertFalse(IdentityKeys.isPossiblePhone("abc"));
+        assertFalse(IdentityKeys.isPossiblePhone("abc 1234567 x"));
+        assertNull(IdentityKeys.canonicalPhone("050+1234567"));
+    }
+
+    @Test
+    public void canonicalPhone_defaultCountryOnlyForNationalNumbers() {
+        // Foreign number without "+" / "00": not re-homed to DEFAULT_COUNTRY_CODE
+        assertNull(IdentityKeys.canonicalPhone("1 555 123 4567"));
+        assertNull(IdentityKeys.canonicalPhone("501234567"));
+        assertNull(IdentityKeys.canonicalPhone("05012345678"));
+        assertEquals("+15551234567", IdentityKeys.canonicalPhone("+1 555 123 4567"));
+        assertEquals("+15551234567", IdentityKeys.canonicalPhone("001 555 123 4567"));
+    }
+
+    @Test
+    public void sha256Hex_matchesReference() throws Exception {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                IdentityKeys.sha256Hex("abc"));
+        assertEquals(legacySha256Hex("+972501234567"), IdentityKeys.sha256Hex("+972501234567"));
+    }
+
+    @Test
+    public void legacyPhoneHash_matchesOldNormalization() throws Exception {
+        assertEquals(legacySha256Hex("0501234567"), IdentityKeys.legacyPhoneHash(" 050-(123) 4567"));
+    }
+
+    @Test
+    public void legacyPhoneHashes_coverOldSpellingsOfTheNumber() throws Exception {
+        List<String> hashes = IdentityKeys.legacyPhoneHashes("+972501234567");
+        assertTrue(hashes.contains(IdentityKeys.legacyPhoneHash("050-123-4567")));
+        assertTrue(hashes.contains(IdentityKeys.legacyPhoneHash("972 50 1234567")));
+        assertFalse(hashes.contains(IdentityKeys.phoneHash("+972501234567")));
+        assertEquals(legacySha256Hex("+972501234567"), IdentityKeys.legacyPhoneHash("+972 50-123-4567"));
+    }
+
+    /** The implementation that used to be copy-pasted in the activities. */
+    private static String legacySha256Hex(String input) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}